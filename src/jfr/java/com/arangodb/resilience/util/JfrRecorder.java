@@ -0,0 +1,319 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.text.ParseException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.stream.Collectors;
+
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import jdk.jfr.Configuration;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordedFrame;
+import jdk.jfr.consumer.RecordedStackTrace;
+import jdk.jfr.consumer.RecordedThread;
+import jdk.jfr.consumer.RecordingFile;
+
+/**
+ * The JDK Flight Recorder behind {@link FlightRecording}. It is compiled by the {@code jfr} profile on Java 11 and
+ * later only, so the other utilities do not depend on {@code jdk.jfr} and still build for Java 8.
+ */
+class JfrRecorder implements FlightRecording.Recorder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FlightRecording.class);
+
+	// threshold of the lock, park and socket events, shorter ones are not recorded
+	private static final String THRESHOLD = System.getProperty("resilience.jfr.threshold", "1 ms");
+	private static final int TOP = Integer.getInteger("resilience.jfr.top", 10);
+	private static final String PROJECT_PACKAGE = "com.arangodb.resilience.";
+	private static final String DRIVER_PACKAGE = "com.arangodb.";
+	private static final String[] THRESHOLD_EVENTS = { "jdk.JavaMonitorEnter", "jdk.JavaMonitorWait",
+			"jdk.ThreadPark", "jdk.SocketRead", "jdk.SocketWrite" };
+	// class of the allocated object, the contended monitor or the park blocker
+	private static final String[] CLASS_FIELDS = { "objectClass", "monitorClass", "parkedClass" };
+
+	@Override
+	public void fault(final String description) {
+		final Fault event = new Fault();
+		event.description = description;
+		event.commit();
+	}
+
+	@Override
+	public void recovered(final String description) {
+		final Recovered event = new Recovered();
+		event.description = description;
+		event.commit();
+	}
+
+	@Override
+	public Statement apply(final Statement base, final Description description) {
+		return new Statement() {
+			@Override
+			public void evaluate() throws Throwable {
+				// leaderDown[activeFailover-1] becomes leaderDown-activeFailover-1
+				final String name = "jfr-" + (description.getTestClass().getSimpleName() + "-"
+						+ description.getMethodName()).replace("]", "").replaceAll("[^A-Za-z0-9._-]", "-");
+				try (final Recording recording = start(name)) {
+					try {
+						base.evaluate();
+					} finally {
+						recording.stop();
+						try {
+							final Path file = Reports.directory().resolve(name + ".jfr");
+							Files.createDirectories(file.getParent());
+							recording.dump(file);
+							final List<RecordedEvent> events = new ArrayList<>(RecordingFile.readAllEvents(file));
+							events.sort(Comparator.comparing(RecordedEvent::getStartTime));
+							Reports.write(name + ".txt", summarize(name, events));
+						} catch (final IOException e) {
+							LOGGER.warn("could not write recording {}", name, e);
+						}
+					}
+				}
+			}
+		};
+	}
+
+	private static Recording start(final String name) throws IOException, ParseException {
+		final Map<String, String> settings = new HashMap<>(Configuration.getConfiguration("profile").getSettings());
+		for (final String event : THRESHOLD_EVENTS) {
+			settings.put(event + "#enabled", "true");
+			settings.put(event + "#threshold", THRESHOLD);
+		}
+		final Recording recording = new Recording(settings);
+		recording.setName(name);
+		recording.enable(Fault.class);
+		recording.enable(Recovered.class);
+		recording.start();
+		return recording;
+	}
+
+	private static String summarize(final String name, final List<RecordedEvent> events) {
+		final Instant begin = events.stream().filter(e -> is(e, Fault.NAME)).map(RecordedEvent::getStartTime)
+				.min(Comparator.naturalOrder()).orElse(Instant.MIN);
+		final Instant end = events.stream().filter(e -> is(e, Recovered.NAME)).map(RecordedEvent::getStartTime)
+				.filter(t -> !t.isBefore(begin)).max(Comparator.naturalOrder()).orElse(Instant.MAX);
+		final Map<String, Site> allocations = new HashMap<>();
+		final Map<String, Site> locks = new HashMap<>();
+		final Map<String, Site> sockets = new HashMap<>();
+		final Map<String, Map<String, Long>> threads = new TreeMap<>();
+		final StringBuilder marks = new StringBuilder();
+		for (final RecordedEvent event : events) {
+			if (event.getEndTime().isBefore(begin) || event.getStartTime().isAfter(end)) {
+				continue;
+			}
+			final String type = event.getEventType().getName();
+			final long nanos = Duration.between(max(event.getStartTime(), begin), min(event.getEndTime(), end))
+					.toNanos();
+			switch (type) {
+			case Fault.NAME:
+			case Recovered.NAME:
+				marks.append(String.format("  %s %s%n", is(event, Fault.NAME) ? "fault    " : "recovered",
+					event.getString("description")));
+				break;
+			case "jdk.ObjectAllocationSample":
+				site(allocations, event).add(event.getLong("weight"));
+				break;
+			case "jdk.ObjectAllocationInNewTLAB":
+				site(allocations, event).add(event.getLong("tlabSize"));
+				break;
+			case "jdk.ObjectAllocationOutsideTLAB":
+				site(allocations, event).add(event.getLong("allocationSize"));
+				break;
+			case "jdk.JavaMonitorEnter":
+			case "jdk.JavaMonitorWait":
+			case "jdk.ThreadPark":
+				site(locks, event).add(nanos);
+				state(threads, event.getThread(), type.substring("jdk.".length()), nanos);
+				break;
+			case "jdk.SocketRead":
+			case "jdk.SocketWrite":
+				// the simulated servers share the JVM, their side of the connections is not broken down
+				final String driverFrame = driverFrame(event.getStackTrace());
+				final String endpoint = driverFrame == null ? "outside the driver"
+						: event.getString("host") + ":" + event.getInt("port") + " <- " + driverFrame;
+				sockets.computeIfAbsent(type.substring("jdk.".length()) + " " + endpoint, k -> new Site()).add(nanos);
+				state(threads, event.getThread(), type.substring("jdk.".length()), nanos);
+				break;
+			case "jdk.ExecutionSample":
+			case "jdk.NativeMethodSample":
+				final Object state = event.getValue("state");
+				state(threads, event.getThread("sampledThread"), String.valueOf(state).replace("STATE_", "")
+						+ " samples", 1);
+				break;
+			default:
+			}
+		}
+		final StringBuilder report = new StringBuilder(name).append(System.lineSeparator());
+		final String window;
+		if (begin == Instant.MIN) {
+			window = "whole test, no fault injected";
+		} else if (end == Instant.MAX) {
+			window = "first fault to end of test";
+		} else {
+			window = "first fault to last recovery, " + Duration.between(begin, end).toMillis() + " ms";
+		}
+		report.append("recovery window: ").append(window).append(System.lineSeparator());
+		report.append(marks);
+		table(report, "allocation sites (sampled bytes)", "bytes", allocations, 1.0);
+		table(report, "lock contention (monitor enter/wait, park)", "ms", locks, 1e6);
+		table(report, "socket reads and writes per endpoint", "ms", sockets, 1e6);
+		report.append(String.format("%nthread states (ms blocked/parked/in socket I/O, execution samples)%n"));
+		for (final Entry<String, Map<String, Long>> thread : threads.entrySet()) {
+			report.append(String.format("  %-32s %s%n", thread.getKey(),
+				thread.getValue().entrySet().stream()
+						.map(s -> s.getKey() + " " + (s.getKey().endsWith("samples") ? s.getValue()
+								: String.format("%.1f", s.getValue() / 1e6)))
+						.collect(Collectors.joining(", "))));
+		}
+		return report.toString();
+	}
+
+	private static void table(
+		final StringBuilder report,
+		final String title,
+		final String unit,
+		final Map<String, Site> sites,
+		final double scale) {
+		report.append(String.format("%n%s%n  %8s %12s  %s%n", title, "count", unit, "site <- driver frame"));
+		sites.entrySet().stream().sorted((a, b) -> Long.compare(b.getValue().total, a.getValue().total)).limit(TOP)
+				.forEach(e -> report.append(String.format("  %8d %12.1f  %s%n", e.getValue().count,
+					e.getValue().total / scale, e.getKey())));
+	}
+
+	private static Site site(final Map<String, Site> sites, final RecordedEvent event) {
+		final RecordedStackTrace stackTrace = event.getStackTrace();
+		String site = "unknown";
+		if (stackTrace != null && !stackTrace.getFrames().isEmpty()) {
+			site = frame(stackTrace.getFrames().get(0));
+		}
+		final String driverFrame = driverFrame(stackTrace);
+		for (final String field : CLASS_FIELDS) {
+			if (event.hasField(field) && event.getClass(field) != null) {
+				site = event.getClass(field).getName() + " in " + site;
+				break;
+			}
+		}
+		return sites.computeIfAbsent(site + " <- " + (driverFrame != null ? driverFrame : "-"), k -> new Site());
+	}
+
+	/**
+	 * @return the innermost frame of the driver or {@code null}
+	 */
+	private static String driverFrame(final RecordedStackTrace stackTrace) {
+		if (stackTrace != null) {
+			for (final RecordedFrame frame : stackTrace.getFrames()) {
+				final String type = frame.getMethod().getType().getName();
+				if (type.startsWith(DRIVER_PACKAGE) && !type.startsWith(PROJECT_PACKAGE)) {
+					return frame(frame);
+				}
+			}
+		}
+		return null;
+	}
+
+	private static String frame(final RecordedFrame frame) {
+		return frame.getMethod().getType().getName() + "." + frame.getMethod().getName() + ":"
+				+ frame.getLineNumber();
+	}
+
+	/**
+	 * Adds to the thread state of a thread group, threads named like {@code workload-3} count as {@code workload} and
+	 * the threads of all executors with default thread names, like the message readers of the VST driver, as
+	 * {@code pool-thread}.
+	 */
+	private static void state(
+		final Map<String, Map<String, Long>> threads,
+		final RecordedThread thread,
+		final String state,
+		final long value) {
+		final String name = thread == null || thread.getJavaName() == null ? "unknown"
+				: thread.getJavaName().replaceAll("-\\d+$", "").replaceAll("^pool-\\d+-thread$", "pool-thread");
+		threads.computeIfAbsent(name, k -> new TreeMap<>()).merge(state, value, Long::sum);
+	}
+
+	private static boolean is(final RecordedEvent event, final String type) {
+		return event.getEventType().getName().equals(type);
+	}
+
+	private static Instant max(final Instant a, final Instant b) {
+		return a.isAfter(b) ? a : b;
+	}
+
+	private static Instant min(final Instant a, final Instant b) {
+		return a.isBefore(b) ? a : b;
+	}
+
+	private static class Site {
+
+		private long count;
+		private long total;
+
+		void add(final long value) {
+			count++;
+			total += value;
+		}
+
+	}
+
+	@Name(Fault.NAME)
+	@Label("Fault")
+	static class Fault extends Event {
+
+		static final String NAME = "com.arangodb.resilience.Fault";
+
+		@Label("Description")
+		String description;
+
+	}
+
+	@Name(Recovered.NAME)
+	@Label("Recovered")
+	static class Recovered extends Event {
+
+		static final String NAME = "com.arangodb.resilience.Recovered";
+
+		@Label("Description")
+		String description;
+
+	}
+
+}
@@ -0,0 +1,84 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.benchmark;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.stream.Collectors;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import com.arangodb.resilience.util.Reports;
+
+/**
+ * Runs the JMH benchmarks once per thread count of {@code -Djmh.threads} (default {@code 1,2,4,8,16,32,64}) and writes
+ * all scores to {@code jmh-results.csv}. Arguments are passed to JMH, e.g. a benchmark regex or {@code -t} to run a
+ * single thread count.
+ */
+public class Benchmarks {
+
+	private static final String HEADER = "benchmark,mode,threads,params,score,error,unit";
+
+	public static void main(final String[] args) throws Exception {
+		final CommandLineOptions cli = new CommandLineOptions(args);
+		final int[] threads = cli.getThreads().hasValue() ? new int[] { cli.getThreads().get() }
+				: Arrays.stream(System.getProperty("jmh.threads", "1,2,4,8,16,32,64").split(","))
+						.mapToInt(t -> Integer.parseInt(t.trim())).toArray();
+		final StringBuilder csv = new StringBuilder(HEADER).append(System.lineSeparator());
+		for (final int t : threads) {
+			final Options options = new OptionsBuilder().parent(cli).threads(t).build();
+			append(csv, new Runner(options).run());
+		}
+		Reports.write(System.getProperty("jmh.report", "jmh-results.csv"), csv.toString());
+	}
+
+	private static void append(final StringBuilder csv, final Collection<RunResult> results) {
+		for (final RunResult result : results) {
+			final BenchmarkParams params = result.getParams();
+			final String values = params.getParamsKeys().stream().map(k -> k + "=" + params.getParam(k))
+					.collect(Collectors.joining(" "));
+			append(csv, params, values, params.getBenchmark(), result.getPrimaryResult());
+			for (final Result<?> secondary : result.getSecondaryResults().values()) {
+				append(csv, params, values, params.getBenchmark() + ":" + secondary.getLabel(), secondary);
+			}
+		}
+	}
+
+	private static void append(
+		final StringBuilder csv,
+		final BenchmarkParams params,
+		final String values,
+		final String benchmark,
+		final Result<?> result) {
+		csv.append(benchmark).append(',').append(params.getMode().shortLabel()).append(',')
+				.append(params.getThreads()).append(',').append(values).append(',')
+				.append(String.format("%.3f,%.3f", result.getScore(), result.getScoreError())).append(',')
+				.append(result.getScoreUnit()).append(System.lineSeparator());
+	}
+
+}
@@ -0,0 +1,142 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.benchmark;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.infra.BenchmarkParams;
+import org.openjdk.jmh.infra.IterationParams;
+import org.openjdk.jmh.profile.InternalProfiler;
+import org.openjdk.jmh.results.AggregationPolicy;
+import org.openjdk.jmh.results.IterationResult;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.ScalarResult;
+
+import com.arangodb.resilience.embedded.SimulatedServer;
+import com.sun.management.ThreadMXBean;
+
+/**
+ * Splits the CPU time and the allocated bytes per operation between the client and the simulated servers running in
+ * the benchmark JVM, which {@code -prof gc} counts together. Everything but the threads of the simulated servers
+ * counts as client: the benchmark threads, the driver's VST reader threads and JMH's own threads, which are idle
+ * while measuring. The threads are sampled every {@link #INTERVAL} ms and count with their last sample, so threads
+ * ending within an iteration, like the ones a trial's {@code @TearDown} stops before the last iteration is
+ * evaluated, are still counted. Enable it with {@code -prof com.arangodb.resilience.benchmark.ClientServerProfiler}.
+ */
+public class ClientServerProfiler implements InternalProfiler {
+
+	private static final ThreadMXBean THREADS = (ThreadMXBean) ManagementFactory.getThreadMXBean();
+	private static final long INTERVAL = 10L;
+
+	// thread id to CPU time, allocated bytes and whether it is a server thread
+	private final Map<Long, long[]> latest = new HashMap<>();
+	private Map<Long, long[]> baseline;
+	private ScheduledExecutorService sampler;
+	private volatile Thread samplerThread;
+
+	@Override
+	public String getDescription() {
+		return "CPU time and allocated bytes per operation of the client and the simulated servers";
+	}
+
+	@Override
+	public void beforeIteration(final BenchmarkParams benchmarkParams, final IterationParams iterationParams) {
+		synchronized (latest) {
+			latest.clear();
+			sample();
+			baseline = new HashMap<>(latest);
+		}
+		sampler = Executors.newSingleThreadScheduledExecutor(r -> {
+			samplerThread = new Thread(r, "client-server-profiler");
+			samplerThread.setDaemon(true);
+			return samplerThread;
+		});
+		sampler.scheduleAtFixedRate(this::sample, INTERVAL, INTERVAL, TimeUnit.MILLISECONDS);
+	}
+
+	@Override
+	public Collection<? extends Result<?>> afterIteration(
+		final BenchmarkParams benchmarkParams,
+		final IterationParams iterationParams,
+		final IterationResult result) {
+		sampler.shutdownNow();
+		try {
+			sampler.awaitTermination(1, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		// CPU time and allocated bytes of the client and the servers
+		final long[] totals = new long[4];
+		synchronized (latest) {
+			sample();
+			latest.forEach((id, now) -> {
+				final long[] then = baseline.getOrDefault(id, new long[3]);
+				final int offset = now[2] == 1 ? 2 : 0;
+				totals[offset] += now[0] - then[0];
+				totals[offset + 1] += now[1] - then[1];
+			});
+		}
+		final double ops = Math.max(1, result.getMetadata().getAllOps());
+		return Arrays.asList(
+			new ScalarResult("client.cpu.norm", totals[0] / ops, "ns/op", AggregationPolicy.AVG),
+			new ScalarResult("client.alloc.norm", totals[1] / ops, "B/op", AggregationPolicy.AVG),
+			new ScalarResult("server.cpu.norm", totals[2] / ops, "ns/op", AggregationPolicy.AVG),
+			new ScalarResult("server.alloc.norm", totals[3] / ops, "B/op", AggregationPolicy.AVG));
+	}
+
+	/**
+	 * Updates the last sample of every live thread but the sampler itself.
+	 */
+	private void sample() {
+		ThreadGroup root = Thread.currentThread().getThreadGroup();
+		while (root.getParent() != null) {
+			root = root.getParent();
+		}
+		Thread[] threads = new Thread[root.activeCount() + 16];
+		int count;
+		while ((count = root.enumerate(threads, true)) == threads.length) {
+			threads = new Thread[threads.length * 2];
+		}
+		final long[] ids = new long[count];
+		for (int i = 0; i < count; i++) {
+			ids[i] = threads[i].getId();
+		}
+		final long[] cpu = THREADS.getThreadCpuTime(ids);
+		final long[] allocated = THREADS.getThreadAllocatedBytes(ids);
+		synchronized (latest) {
+			for (int i = 0; i < count; i++) {
+				if (threads[i] != samplerThread && cpu[i] >= 0 && allocated[i] >= 0) {
+					latest.put(ids[i],
+						new long[] { cpu[i], allocated[i], SimulatedServer.isServerThread(threads[i]) ? 1 : 0 });
+				}
+			}
+		}
+	}
+
+}
@@ -0,0 +1,129 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.benchmark;
+
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.arangodb.ArangoCollection;
+import com.arangodb.ArangoCursor;
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.entity.BaseDocument;
+import com.arangodb.entity.DocumentUpdateEntity;
+import com.arangodb.model.AqlQueryOptions;
+import com.arangodb.resilience.embedded.SimulatedDeployment;
+import com.arangodb.resilience.embedded.SimulatedServer;
+
+/**
+ * Mean latency of document reads, document writes and cursor batches per protocol and document size against a
+ * simulated coordinator running in the benchmark JVM. The simulated server serializes as well, run it with
+ * {@code -prof com.arangodb.resilience.benchmark.ClientServerProfiler} to split CPU time and allocated bytes per
+ * operation between the driver and the server, {@link SerializationBenchmark} measures the serialization alone.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DocumentBenchmark {
+
+	private static final String COLLECTION = "benchmark";
+	// documents per cursor batch, the server returns the bound document for every element
+	private static final int BATCH = 100;
+	private static final String QUERY = "FOR i IN 1.." + BATCH + " RETURN @document";
+
+	@Param({ "VST", "HTTP_JSON", "HTTP_VPACK" })
+	private Protocol protocol;
+
+	@Param({ "10", "1000" })
+	private int attributes;
+
+	private SimulatedDeployment deployment;
+	private ArangoDB arango;
+	private ArangoCollection collection;
+	private BaseDocument document;
+	private Map<String, Object> bindVars;
+	private AqlQueryOptions options;
+
+	@Setup
+	public void setup() {
+		// no failover delays, free ports, no limit of concurrent queries
+		deployment = new SimulatedDeployment("127.0.0.1", 0, 0, 0, 0, 0);
+		final SimulatedServer coordinator = deployment.startCluster(1, 1, 1);
+		arango = new ArangoDB.Builder().useProtocol(protocol).host(coordinator.getHost(), coordinator.getPort())
+				.build();
+		arango.db().createCollection(COLLECTION);
+		collection = arango.db().collection(COLLECTION);
+		document = Documents.create(attributes);
+		collection.insertDocument(document);
+		bindVars = Collections.singletonMap("document", document);
+		options = new AqlQueryOptions().batchSize(BATCH);
+	}
+
+	@TearDown
+	public void teardown() {
+		arango.shutdown();
+		deployment.close();
+	}
+
+	@Benchmark
+	public BaseDocument read() {
+		return collection.getDocument(Documents.KEY, BaseDocument.class);
+	}
+
+	/**
+	 * Replaces the same document, so the document store does not grow during the benchmark.
+	 */
+	@Benchmark
+	public DocumentUpdateEntity<BaseDocument> write() {
+		return collection.replaceDocument(Documents.KEY, document);
+	}
+
+	/**
+	 * Reads a cursor of one batch of {@link #BATCH} documents, the query carries the document once as bind parameter.
+	 */
+	@Benchmark
+	public void readBatch(final Blackhole blackhole) {
+		final ArangoCursor<BaseDocument> cursor = arango.db().query(QUERY, bindVars, options, BaseDocument.class);
+		while (cursor.hasNext()) {
+			blackhole.consume(cursor.next());
+		}
+	}
+
+}
@@ -0,0 +1,61 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.benchmark;
+
+import com.arangodb.entity.BaseDocument;
+
+/**
+ * Documents of a given size for the serialization benchmarks: flat, with string, integer, floating point and boolean
+ * attributes in turn, about 25 bytes per attribute in VelocyPack.
+ */
+final class Documents {
+
+	static final String KEY = "benchmark";
+
+	private Documents() {
+		super();
+	}
+
+	static BaseDocument create(final int attributes) {
+		final BaseDocument document = new BaseDocument(KEY);
+		for (int i = 0; i < attributes; i++) {
+			final Object value;
+			switch (i % 4) {
+			case 0:
+				value = "value-" + i;
+				break;
+			case 1:
+				value = (long) i;
+				break;
+			case 2:
+				value = i / 3.0;
+				break;
+			default:
+				value = i % 8 == 3;
+				break;
+			}
+			document.addAttribute("attribute" + i, value);
+		}
+		return document;
+	}
+
+}
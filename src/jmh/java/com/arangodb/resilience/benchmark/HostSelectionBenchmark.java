@@ -0,0 +1,103 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.benchmark;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.internal.net.AccessType;
+import com.arangodb.internal.net.FallbackHostHandler;
+import com.arangodb.internal.net.Host;
+import com.arangodb.internal.net.HostDescription;
+import com.arangodb.internal.net.HostHandle;
+import com.arangodb.internal.net.HostHandler;
+import com.arangodb.internal.net.HostImpl;
+import com.arangodb.internal.net.HostResolver;
+import com.arangodb.internal.net.RandomHostHandler;
+import com.arangodb.internal.net.RoundRobinHostHandler;
+import com.arangodb.internal.net.SimpleHostResolver;
+
+/**
+ * Cost of picking a host, isolated from any I/O: one {@link HostHandler} per strategy shared by all benchmark threads,
+ * as the driver shares it between all threads using one {@code ArangoDB} instance.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HostSelectionBenchmark {
+
+	@Param({ "NONE", "ROUND_ROBIN", "ONE_RANDOM" })
+	private LoadBalancingStrategy strategy;
+
+	@Param({ "3" })
+	private int hosts;
+
+	private HostHandler handler;
+
+	@Setup
+	public void setup() {
+		final List<Host> list = new ArrayList<>();
+		for (int i = 0; i < hosts; i++) {
+			// host selection never touches the connection pool
+			list.add(new HostImpl(null, new HostDescription("127.0.0.1", 8529 + i)));
+		}
+		final HostResolver resolver = new SimpleHostResolver(list);
+		switch (strategy) {
+		case ONE_RANDOM:
+			handler = new RandomHostHandler(resolver, new FallbackHostHandler(resolver));
+			break;
+		case ROUND_ROBIN:
+			handler = new RoundRobinHostHandler(resolver);
+			break;
+		case NONE:
+		default:
+			handler = new FallbackHostHandler(resolver);
+			break;
+		}
+	}
+
+	@Benchmark
+	public Host select() {
+		final Host host = handler.get(new HostHandle(), AccessType.WRITE);
+		handler.success();
+		handler.confirm();
+		return host;
+	}
+
+}
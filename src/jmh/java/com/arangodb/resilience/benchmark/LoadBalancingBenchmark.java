@@ -0,0 +1,102 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.benchmark;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.entity.ArangoDBVersion;
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.resilience.embedded.ServerRole;
+import com.arangodb.resilience.embedded.SimulatedDeployment;
+import com.arangodb.resilience.embedded.SimulatedServer;
+
+/**
+ * Throughput and mean latency of a minimal request ({@code GET /_api/version}) through each load balancing strategy
+ * against a static list of simulated coordinators running in the benchmark JVM.
+ */
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBalancingBenchmark {
+
+	@Param({ "NONE", "ROUND_ROBIN", "ONE_RANDOM" })
+	private LoadBalancingStrategy strategy;
+
+	@Param({ "VST", "HTTP_JSON" })
+	private Protocol protocol;
+
+	@Param({ "3" })
+	private int coordinators;
+
+	private SimulatedDeployment deployment;
+	private ArangoDB arango;
+
+	@Setup
+	public void setup() {
+		// no failover delays, free ports, no limit of concurrent queries
+		deployment = new SimulatedDeployment("127.0.0.1", 0, 0, 0, 0, 0);
+		deployment.startCluster(1, coordinators, 2);
+		final ArangoDB.Builder builder = new ArangoDB.Builder().useProtocol(protocol)
+				.loadBalancingStrategy(strategy);
+		for (final SimulatedServer coordinator : deployment.instances(ServerRole.COORDINATOR)) {
+			builder.host(coordinator.getHost(), coordinator.getPort());
+		}
+		arango = builder.build();
+	}
+
+	@TearDown
+	public void teardown() {
+		arango.shutdown();
+		deployment.close();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.Throughput)
+	@OutputTimeUnit(TimeUnit.SECONDS)
+	public ArangoDBVersion throughput() {
+		return arango.getVersion();
+	}
+
+	@Benchmark
+	@BenchmarkMode(Mode.AverageTime)
+	@OutputTimeUnit(TimeUnit.MICROSECONDS)
+	public ArangoDBVersion latency() {
+		return arango.getVersion();
+	}
+
+}
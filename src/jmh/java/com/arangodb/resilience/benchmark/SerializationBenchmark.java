@@ -0,0 +1,147 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.benchmark;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.entity.BaseDocument;
+import com.arangodb.entity.CursorEntity;
+import com.arangodb.util.ArangoSerialization;
+import com.arangodb.util.ArangoSerializer;
+import com.arangodb.velocypack.VPackBuilder;
+import com.arangodb.velocypack.VPackSlice;
+import com.arangodb.velocypack.ValueType;
+
+/**
+ * Cost of turning a document into the bytes of a request body and a response body back into documents, isolated from
+ * any I/O, the way the driver does it: {@code VPACK} is what VST and {@code HTTP_VPACK} send, {@code JSON} is
+ * {@code HTTP_JSON}, which serializes to VelocyPack first and converts it to and from JSON text. Run it with
+ * {@code -prof gc} for the bytes allocated per operation.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SerializationBenchmark {
+
+	public enum Format {
+		VPACK, JSON
+	}
+
+	// documents per cursor batch
+	private static final int BATCH = 100;
+	// the options HttpConnection parses a JSON response with
+	private static final ArangoSerializer.Options JSON_RESPONSE = new ArangoSerializer.Options().stringAsJson(true)
+			.serializeNullValues(true);
+
+	@Param({ "VPACK", "JSON" })
+	private Format format;
+
+	@Param({ "10", "1000" })
+	private int attributes;
+
+	private ArangoDB arango;
+	private ArangoSerialization util;
+	private BaseDocument document;
+	private byte[] documentBody;
+	private byte[] batchBody;
+
+	@Setup
+	public void setup() {
+		// never connects, only its serialization is used
+		arango = new ArangoDB.Builder().build();
+		util = arango.util();
+		document = Documents.create(attributes);
+		final VPackSlice slice = util.serialize(document);
+		documentBody = body(slice);
+		final VPackBuilder batch = new VPackBuilder().add(ValueType.OBJECT).add("result", ValueType.ARRAY);
+		for (int i = 0; i < BATCH; i++) {
+			batch.add(slice);
+		}
+		batchBody = body(batch.close().add("hasMore", true).add("id", "1").add("cached", false).add("error", false)
+				.add("code", 201).close().slice());
+	}
+
+	@TearDown
+	public void teardown() {
+		arango.shutdown();
+	}
+
+	private byte[] body(final VPackSlice slice) {
+		return format == Format.VPACK
+				? Arrays.copyOfRange(slice.getBuffer(), slice.getStart(), slice.getStart() + slice.getByteSize())
+				: slice.toString().getBytes(StandardCharsets.UTF_8);
+	}
+
+	/**
+	 * @return the body of a request writing the document
+	 */
+	@Benchmark
+	public byte[] write() {
+		return body(util.serialize(document));
+	}
+
+	/**
+	 * @return the document of the body of a response
+	 */
+	@Benchmark
+	public BaseDocument read() {
+		return util.deserialize(response(documentBody), BaseDocument.class);
+	}
+
+	/**
+	 * Reads every document of a cursor batch of {@link #BATCH} documents, like the cursor iterator of the driver.
+	 */
+	@Benchmark
+	public void readBatch(final Blackhole blackhole) {
+		final CursorEntity entity = util.deserialize(response(batchBody), CursorEntity.class);
+		for (final Iterator<VPackSlice> iterator = entity.getResult().arrayIterator(); iterator.hasNext();) {
+			blackhole.consume(util.deserialize(iterator.next(), BaseDocument.class));
+		}
+	}
+
+	private VPackSlice response(final byte[] body) {
+		return format == Format.VPACK ? new VPackSlice(body)
+				: util.serialize(new String(body, StandardCharsets.UTF_8), JSON_RESPONSE);
+	}
+
+}
@@ -0,0 +1,138 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience;
+
+import static com.arangodb.resilience.util.EndpointUtils.host;
+import static com.arangodb.resilience.util.EndpointUtils.port;
+
+import java.util.Collection;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.rules.TestName;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.internal.net.HostDescription;
+import com.arangodb.resilience.util.Convergence;
+import com.arangodb.resilience.util.FlightRecording;
+import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Topology;
+import com.arangodb.velocypack.VPackSlice;
+import com.arangodb.velocystream.Request;
+import com.arangodb.velocystream.RequestType;
+import com.arangodb.velocystream.Response;
+
+/**
+ * Runs once per active failover setup of the topology matrix and protocol, see {@link Topology#activeFailovers()} and
+ * {@link ProtocolComparison#protocols()}. The requests of every run are compared across the protocols in
+ * {@code protocol-comparison-<TestClass>.txt}.
+ */
+@RunWith(Parameterized.class)
+public abstract class BaseActiveFailoverTest extends BaseTest {
+
+	private static final long PROBE_INTERVAL = 5L;
+
+	/**
+	 * Records the test with JDK Flight Recorder if enabled with {@code -Dresilience.jfr=true}.
+	 */
+	@Rule
+	public final FlightRecording recording = new FlightRecording();
+
+	@Rule
+	public final TestName test = new TestName();
+
+	@Parameter(0)
+	public Topology topology;
+
+	@Parameter(1)
+	public Protocol protocol;
+
+	protected Instance leader;
+	protected String uuid;
+	private ProtocolComparison.Sample sample;
+
+	@Parameters(name = "{0}-{1}")
+	public static Collection<Object[]> topologies() {
+		return Topology.parameters(Topology.activeFailovers(), ProtocolComparison.protocols());
+	}
+
+	@Before
+	public void setup() {
+		topology.lease(fixtures);
+		im.waitForReplicationLeader();
+		uuid = im.getReplicationLeaderId();
+		leader = im.getReplicationLeader();
+		final ArangoDB.Builder builder = new ArangoDB.Builder().useProtocol(protocol);
+		configure(builder, new HostDescription(host(leader.getEndpoint()), port(leader.getEndpoint())));
+		arango = instrument(builder.build());
+		sample = comparison.start();
+	}
+
+	protected abstract void configure(final ArangoDB.Builder builder, final HostDescription leader);
+
+	@After
+	public void teardown() {
+		comparison.record(test.getMethodName(), topology, protocol, sample);
+		arango.shutdown();
+		fixtures.release();
+	}
+
+	/**
+	 * @return the cell of the matrix, e.g. {@code activeFailover-1-VST}
+	 */
+	protected String cell() {
+		return topology + "-" + protocol;
+	}
+
+	protected String serverId() {
+		final VPackSlice execute = execute(RequestType.GET, "/_api/replication/server-id");
+		return execute.get("serverId").toString();
+	}
+
+	protected Response serverIdResponse() {
+		return arango.execute(new Request("_system", RequestType.GET, "/_api/replication/server-id"));
+	}
+
+	protected static String serverId(final Response response) {
+		return response.getBody().get("serverId").toString();
+	}
+
+	protected Map<String, String> responseHeader() {
+		return arango.execute(new Request("_system", RequestType.GET, "/_api/version")).getMeta();
+	}
+
+	/**
+	 * @return a convergence probing every {@link #PROBE_INTERVAL} ms instead of backing off, so a recovery is detected
+	 *         at most that late
+	 */
+	static Convergence probing() {
+		return new Convergence().initialInterval(PROBE_INTERVAL).maxInterval(PROBE_INTERVAL);
+	}
+
+}
@@ -20,63 +20,71 @@
 
 package com.arangodb.resilience;
 
-import static com.arangodb.resilience.util.EndpointUtils.host;
-import static com.arangodb.resilience.util.EndpointUtils.port;
+import static org.hamcrest.Matchers.greaterThan;
 import static org.hamcrest.Matchers.is;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
 import java.io.IOException;
-import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
-import org.junit.After;
-import org.junit.Before;
 import org.junit.Test;
 
 import com.arangodb.ArangoCursor;
-import com.arangodb.ArangoDB;
-import com.arangodb.internal.net.HostDescription;
+import com.arangodb.ArangoDBException;
 import com.arangodb.internal.util.RequestUtils;
 import com.arangodb.model.AqlQueryOptions;
+import com.arangodb.resilience.util.Convergence;
+import com.arangodb.resilience.util.Convergence.Outcome;
+import com.arangodb.resilience.util.FailoverTimes;
+import com.arangodb.resilience.util.FlightRecording;
+import com.arangodb.resilience.util.HistogramReport;
 import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.Workload;
 import com.arangodb.velocypack.VPackSlice;
 import com.arangodb.velocystream.Request;
 import com.arangodb.velocystream.RequestType;
+import com.arangodb.velocystream.Response;
 
 /**
+ * Failover scenarios of a driver which knows the leader, the subclasses configure the host list it starts with.
+ *
  * @author Mark Vollmary
  *
  */
-public abstract class BaseFailoverTest extends BaseTest {
-
-	private Instance leader;
-	private String uuid;
-
-	@Before
-	public void setup() {
-		im.startAgency();
-		im.startSingleServer(2);
-		im.waitForAllInstances();
-		im.waitForReplicationLeader();
-		uuid = im.getReplicationLeaderId();
-		leader = im.getReplicationLeader();
-		final ArangoDB.Builder builder = new ArangoDB.Builder();
-		configure(builder, new HostDescription(host(leader.getEndpoint()), port(leader.getEndpoint())));
-		arango = builder.build();
+public abstract class BaseFailoverTest extends BaseActiveFailoverTest {
+
+	protected static final int FAILOVER_CYCLES = Integer.getInteger("resilience.failover.cycles", 5);
+	protected static final int WORKLOAD_THREADS = Integer.getInteger("resilience.workload.threads", 4);
+	private static final long WORKLOAD_WARMUP = Long.getLong("resilience.workload.warmup", 1000L);
+	private static final long WORKLOAD_RECOVERY_TIMEOUT = Long.getLong("resilience.workload.recoveryTimeout", 10000L);
+	private static final String WORKLOAD_COLLECTION = "workload";
+
+	/**
+	 * Like {@link #serverIdResponse()}, but sends a query only the leader answers first. Followers answer
+	 * {@code /_api/replication/server-id} themselves and the driver's fallback host handler stays with the host which
+	 * answered, so with more than one follower a driver which failed over to a follower would otherwise never move on
+	 * to the new leader.
+	 */
+	protected Response leaderServerIdResponse() {
+		try {
+			leaderQuery();
+		} catch (final ArangoDBException e) {
+			// the state is reported by the server id request
+		}
+		return serverIdResponse();
 	}
 
-	protected abstract void configure(final ArangoDB.Builder builder, final HostDescription leader);
-
-	@After
-	public void teardown() {
-		arango.shutdown();
-		im.cleanup();
-	}
-
-	protected String serverId() {
-		final VPackSlice execute = execute(RequestType.GET, "/_api/replication/server-id");
-		return execute.get("serverId").toString();
+	/**
+	 * Sends an application request only the leader answers, followers refuse it.
+	 */
+	protected void leaderQuery() {
+		arango.db().query("FOR i IN 1..1 RETURN i", null, null, Integer.class).asListRemaining();
 	}
 
 	protected String serverIdDirty() {
@@ -89,42 +97,95 @@ public abstract class BaseFailoverTest extends BaseTest {
 				.putHeaderParam(RequestUtils.HEADER_ALLOW_DIRTY_READ, "true")).getBody();
 	}
 
-	protected Map<String, String> responseHeader() {
-		return arango.execute(new Request("_system", RequestType.GET, "/_api/version")).getMeta();
-	}
-
 	@Test
-	public void leaderDown() {
+	public void leaderDown() throws InterruptedException {
 		final String leaderId = serverId();
 		assertThat(leaderId, is(not(nullValue())));
 		assertThat(responseHeader().containsKey("X-Arango-Endpoint"), is(false));
+		final long killedAt = System.nanoTime();
 		im.kill(leader);
 		im.waitForReplicationLeader(uuid);
-		
-		int sleepTime = 5000;
-		int currentRun = 0;
-		int maxRuns = 6;
-		
-		String newLeaderId = "";
-		while (currentRun < maxRuns) {
-			try {
-				Thread.sleep(sleepTime); // agency plan is upgraded but new leader still responses with header
-									// "X-Arango-Endpoint"
-			} catch (final InterruptedException e) {
-			}
-			newLeaderId = serverId();
-			if (!responseHeader().containsKey("X-Arango-Endpoint")) {
-				break;
-			}
-			currentRun++;
-		}
+		// agency plan is upgraded but new leader still responses with header "X-Arango-Endpoint"
+		final Outcome<Response> failover = probing().await(this::leaderServerIdResponse,
+			r -> !r.getMeta().containsKey("X-Arango-Endpoint") && !leaderId.equals(serverId(r)));
+		FailoverTimes.record(getClass().getSimpleName() + "[" + cell() + "].leaderDown", failover, killedAt);
 
-		
+		final String newLeaderId = serverId();
 		assertThat(newLeaderId, is(not(nullValue())));
 		assertThat(newLeaderId, is(not(leaderId)));
 		assertThat(responseHeader().containsKey("X-Arango-Endpoint"), is(false));
 	}
 
+	/**
+	 * Kills the current leader {@link #FAILOVER_CYCLES} times and reports how long the driver takes until the first
+	 * query is answered, which only a leader does, how long until responses come from the new leader without redirect
+	 * header and how many requests, queries and server id requests alike, failed in between.
+	 */
+	@Test
+	public void leaderDownCycles() throws InterruptedException {
+		final HistogramReport report = new HistogramReport(
+				getClass().getSimpleName() + " " + cell() + ": " + FAILOVER_CYCLES + " leader kill cycles");
+		for (int cycle = 0; cycle < FAILOVER_CYCLES; cycle++) {
+			final Instance currentLeader = im.getReplicationLeader();
+			final String leaderId = serverId();
+			final AtomicLong firstSuccess = new AtomicLong();
+			final AtomicInteger failedRequests = new AtomicInteger();
+			final long killedAt = System.nanoTime();
+			im.kill(currentLeader);
+			final Outcome<Response> recovery = probing().await(() -> {
+				try {
+					leaderQuery();
+					firstSuccess.compareAndSet(0, System.nanoTime());
+				} catch (final RuntimeException e) {
+					failedRequests.incrementAndGet();
+				}
+				try {
+					return serverIdResponse();
+				} catch (final RuntimeException e) {
+					failedRequests.incrementAndGet();
+					throw e;
+				}
+			}, r -> firstSuccess.get() > 0 && !r.getMeta().containsKey("X-Arango-Endpoint")
+					&& !leaderId.equals(serverId(r)));
+			assertThat(recovery.isConverged(), is(true));
+			FlightRecording.recovered("cycle " + cycle);
+			report.histogram("time-to-first-success", "ms", 1000)
+					.recordValue(MICROSECONDS.convert(firstSuccess.get() - killedAt, NANOSECONDS));
+			report.histogram("time-to-no-redirect", "ms", 1000)
+					.recordValue(recovery.elapsedSince(killedAt, MICROSECONDS));
+			report.histogram("failed-requests", "count").recordValue(failedRequests.get());
+			im.restart(currentLeader);
+			im.waitForInstance(currentLeader.getName());
+		}
+		report.write("failover-recovery-" + getClass().getSimpleName() + "-" + cell() + ".txt");
+	}
+
+	/**
+	 * Kills the leader while {@link #WORKLOAD_THREADS} threads read and write continuously and reports the throughput
+	 * per {@value Workload#BUCKET_MILLIS} ms bucket through the kill, the election and the recovery.
+	 */
+	@Test
+	public void leaderDownUnderLoad() throws InterruptedException {
+		final Workload workload = new Workload(arango, WORKLOAD_COLLECTION, WORKLOAD_THREADS, 0.5).start();
+		try {
+			Thread.sleep(WORKLOAD_WARMUP);
+			workload.mark("kill " + leader.getName());
+			im.kill(leader);
+			im.waitForReplicationLeader(uuid);
+			// the report shows a throughput that does not recover, so a missing recovery does not fail the test
+			if (new Convergence().timeout(WORKLOAD_RECOVERY_TIMEOUT).await(workload::isRecovered, r -> r)
+					.isConverged()) {
+				FlightRecording.recovered("workload throughput");
+			}
+			// keep observing after the recovery so the curve shows it holds
+			Thread.sleep(WORKLOAD_WARMUP / 2);
+		} finally {
+			workload.stop();
+		}
+		workload.write("workload-" + getClass().getSimpleName() + "-" + cell());
+		assertThat(workload.successesAfterMark(), is(greaterThan(0L)));
+	}
+
 	@Test
 	public void dirtyRead() {
 		final String leader = serverIdDirty();
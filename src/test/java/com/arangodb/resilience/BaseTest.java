@@ -20,11 +20,16 @@
 
 package com.arangodb.resilience;
 
-import org.junit.AfterClass;
 import org.junit.BeforeClass;
+import org.junit.ClassRule;
+import org.junit.rules.TestRule;
+import org.junit.runners.model.Statement;
 
 import com.arangodb.ArangoDB;
+import com.arangodb.resilience.util.DriverInstrumentation;
+import com.arangodb.resilience.util.FixturePool;
 import com.arangodb.resilience.util.InstanceManager;
+import com.arangodb.resilience.util.ProtocolComparison;
 import com.arangodb.velocypack.VPackSlice;
 import com.arangodb.velocystream.Request;
 import com.arangodb.velocystream.RequestType;
@@ -35,17 +40,43 @@ import com.arangodb.velocystream.RequestType;
  */
 public abstract class BaseTest {
 
+	protected static FixturePool fixtures;
 	protected static InstanceManager im;
+	protected static DriverInstrumentation instrumentation;
+	protected static ProtocolComparison comparison;
 	protected ArangoDB arango;
 
+	/**
+	 * Collects per host statistics of every driver passed through {@link #instrument(ArangoDB)} and writes them to
+	 * {@code instrumentation-<TestClass>.json} after the class, together with the protocol comparison of the runs
+	 * recorded in {@link #comparison}.
+	 */
+	@ClassRule
+	public static final TestRule INSTRUMENTATION = (base, description) -> new Statement() {
+		@Override
+		public void evaluate() throws Throwable {
+			instrumentation = new DriverInstrumentation(description.getTestClass().getSimpleName());
+			comparison = new ProtocolComparison(description.getTestClass().getSimpleName(), instrumentation);
+			try {
+				base.evaluate();
+			} finally {
+				instrumentation.write();
+				comparison.write();
+			}
+		}
+	};
+
 	@BeforeClass
 	public static void initInstanceManager() {
-		im = new InstanceManager();
+		fixtures = FixturePool.instance();
+		im = fixtures.getInstanceManager();
 	}
 
-	@AfterClass
-	public static void shutdownInstanceManager() {
-		im.shutdown();
+	/**
+	 * @return the given driver, recording into the instrumentation of the test class
+	 */
+	protected ArangoDB instrument(final ArangoDB arango) {
+		return instrumentation.instrument(arango);
 	}
 
 	protected VPackSlice execute(final RequestType requestType, final String path) {
@@ -0,0 +1,185 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience;
+
+import static com.arangodb.resilience.util.EndpointUtils.host;
+import static com.arangodb.resilience.util.EndpointUtils.port;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeNoException;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.Histogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.resilience.util.Chaos;
+import com.arangodb.resilience.util.ChaosSchedule;
+import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Reports;
+import com.arangodb.resilience.util.Topology;
+import com.arangodb.resilience.util.Workload;
+
+/**
+ * Runs a workload while a seeded {@link ChaosSchedule} kills, shuts down and restarts instances and takes down the
+ * agency leader. Runs once per cell of the topology matrix and protocol, see {@link Topology} and
+ * {@link ProtocolComparison#protocols()}.
+ * <p>
+ * The seed is {@code -Dresilience.chaos.seed} ({@code random} picks a new one), the faults are spread over
+ * {@code -Dresilience.chaos.millis} ms with a mean gap of {@code -Dresilience.chaos.interval} ms. The executed events
+ * are written to {@code chaos-<test>-<topology>-<protocol>.csv}; {@code -Dresilience.chaos.replay=<event log>} runs
+ * exactly that schedule again. Throughput, latency and the longest stall of the workload are appended to
+ * {@code chaos-soak.csv}.
+ */
+@RunWith(Parameterized.class)
+public class ChaosTest extends BaseTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ChaosTest.class);
+
+	private static final String SEED = System.getProperty("resilience.chaos.seed", "1");
+	private static final String REPLAY = System.getProperty("resilience.chaos.replay");
+	private static final long DURATION = Long.getLong("resilience.chaos.millis", 3000L);
+	private static final long INTERVAL = Long.getLong("resilience.chaos.interval", 300L);
+	private static final int THREADS = Integer.getInteger("resilience.chaos.threads", 4);
+	// the driver waits for a VST response without limit by default, a response lost to a killed server would stall
+	// the workload for good instead of showing up as an error
+	private static final int REQUEST_TIMEOUT = 2000;
+	private static final long WARMUP = 500L;
+	// observed after the last restart, shows whether the workload comes back
+	private static final long SETTLE = 1000L;
+
+	@Parameter(0)
+	public Topology topology;
+
+	@Parameter(1)
+	public Protocol protocol;
+
+	@Parameters(name = "{0}-{1}")
+	public static Collection<Object[]> topologies() {
+		final List<Topology> topologies = new ArrayList<>(Topology.clusters());
+		topologies.addAll(Topology.activeFailovers());
+		return Topology.parameters(topologies, ProtocolComparison.protocols());
+	}
+
+	@Before
+	public void setup() {
+		topology.lease(fixtures);
+		final ArangoDB.Builder builder = new ArangoDB.Builder().useProtocol(protocol).timeout(REQUEST_TIMEOUT);
+		if (topology.isCluster()) {
+			builder.loadBalancingStrategy(LoadBalancingStrategy.ROUND_ROBIN);
+			im.coordinators().forEach(i -> builder.host(host(i.getEndpoint()), port(i.getEndpoint())));
+		} else {
+			im.waitForReplicationLeader();
+			final Instance leader = im.getReplicationLeader();
+			builder.host(host(leader.getEndpoint()), port(leader.getEndpoint()));
+			im.singleServers().stream().filter(i -> !i.getName().equals(leader.getName()))
+					.forEach(i -> builder.host(host(i.getEndpoint()), port(i.getEndpoint())));
+		}
+		arango = instrument(builder.build());
+	}
+
+	@After
+	public void teardown() {
+		arango.shutdown();
+		fixtures.release();
+	}
+
+	private ChaosSchedule schedule() {
+		final Map<String, List<String>> instances = new LinkedHashMap<>();
+		instances.put(ChaosSchedule.AGENT, names(im.agents()));
+		if (topology.isCluster()) {
+			instances.put(ChaosSchedule.COORDINATOR, names(im.coordinators()));
+			instances.put(ChaosSchedule.DBSERVER, names(im.dbServers()));
+		} else {
+			instances.put(ChaosSchedule.SINGLE, names(im.singleServers()));
+		}
+		if (REPLAY != null) {
+			try {
+				return ChaosSchedule.replay(Paths.get(REPLAY)).on(instances);
+			} catch (final IllegalArgumentException e) {
+				// the event log was recorded on another cell of the matrix
+				assumeNoException(e);
+			}
+		}
+		final long seed = "random".equals(SEED) ? ThreadLocalRandom.current().nextLong() : Long.parseLong(SEED);
+		return ChaosSchedule.generate(seed, instances, DURATION, INTERVAL);
+	}
+
+	private static List<String> names(final Collection<Instance> instances) {
+		return instances.stream().map(Instance::getName).collect(Collectors.toList());
+	}
+
+	@Test
+	public void chaos() throws InterruptedException {
+		final String name = getClass().getSimpleName() + "-" + topology + "-" + protocol;
+		final ChaosSchedule schedule = schedule();
+		LOGGER.info("{}: seed {}, {} events", name, schedule.getSeed(), schedule.getEvents().size());
+		final Chaos chaos = new Chaos(im, schedule);
+		final Workload workload = new Workload(arango, "chaos", THREADS, 0.5).start();
+		final long started = System.nanoTime();
+		try {
+			MILLISECONDS.sleep(WARMUP);
+			workload.mark("chaos seed " + schedule.getSeed());
+			chaos.run(workload::event);
+			MILLISECONDS.sleep(SETTLE);
+		} finally {
+			workload.stop();
+			chaos.write("chaos-" + name);
+			workload.write("workload-chaos-" + name);
+		}
+		final double seconds = (System.nanoTime() - started) / 1e9;
+		final Histogram latency = workload.latency();
+		final long failedEvents = chaos.getLog().stream().filter(e -> !"ok".equals(e.getOutcome())).count();
+		Reports.append("chaos-soak.csv",
+			"protocol,topology,seed,events,failedEvents,operations,operationsPerSecond,errors,latencyP50Ms,latencyP99Ms,latencyMaxMs,longestStallMs",
+			String.format("%s,%s,%d,%d,%d,%d,%.0f,%d,%.2f,%.2f,%.2f,%d", protocol, topology, schedule.getSeed(),
+				chaos.getLog().size(), failedEvents, latency.getTotalCount(), latency.getTotalCount() / seconds,
+				workload.errors(), latency.getValueAtPercentile(50) / 1000.0,
+				latency.getValueAtPercentile(99) / 1000.0, latency.getMaxValue() / 1000.0, workload.longestStall()));
+		assertThat(chaos.getLog().size(), is(schedule.getEvents().size()));
+		assertThat(failedEvents, is(0L));
+		assertThat(latency.getTotalCount(), is(greaterThan(0L)));
+	}
+
+}
@@ -0,0 +1,301 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience;
+
+import static com.arangodb.resilience.util.EndpointUtils.host;
+import static com.arangodb.resilience.util.EndpointUtils.port;
+import static org.hamcrest.Matchers.everyItem;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeTrue;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.Histogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.resilience.proxy.FaultProxy;
+import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Reports;
+import com.arangodb.resilience.util.Workload;
+import com.arangodb.velocystream.Request;
+import com.arangodb.velocystream.RequestType;
+
+/**
+ * Sweeps {@code connectionTtl} under steady traffic. The driver talks to a single endpoint, a {@link FaultProxy}
+ * balancing connections over three coordinators, so only new connections reach a restarted coordinator: the TTL
+ * trades reconnects and their latency against how fast load spreads to it again. Runs once per protocol, see
+ * {@link ProtocolComparison#protocols()}. Every TTL is appended to {@code connection-ttl-churn.csv}.
+ */
+@RunWith(Parameterized.class)
+public class ConnectionTtlChurnTest extends BaseTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ConnectionTtlChurnTest.class);
+
+	private static final int NUM_COORDINATORS = 3;
+	private static final String NO_TTL = "none";
+	// connection TTLs in production range from seconds to minutes, the smoke sweep only checks that the test works
+	private static final String TTLS_FULL = NO_TTL + ",1000,10000,60000,600000";
+	private static final String TTLS_SMOKE = NO_TTL + ",250,1000";
+	private static final List<String> TTLS = Arrays
+			.stream(System.getProperty("resilience.ttl.values",
+				Boolean.getBoolean("resilience.ttl.smoke") ? TTLS_SMOKE : TTLS_FULL).split(","))
+			.map(String::trim).collect(Collectors.toList());
+	private static final int THREADS = Integer.getInteger("resilience.workload.threads", 4);
+	private static final int CONNECTIONS = 2 * NUM_COORDINATORS;
+	private static final long STEADY = 1000L;
+	private static final long DOWNTIME = 500L;
+	private static final long REBALANCE_SLACK = 2000L;
+	private static final long WINDOW = 500L;
+	// latency above this multiple of the median counts as a spike
+	private static final int SPIKE = 10;
+
+	@Parameter
+	public Protocol protocol;
+
+	private FaultProxy balancer;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> protocols() {
+		return ProtocolComparison.parameters();
+	}
+
+	@Before
+	public void setup() {
+		fixtures.leaseCluster(1, NUM_COORDINATORS, 2);
+		balancer = new FaultProxy("127.0.0.1", im.coordinators().stream()
+				.map(c -> new InetSocketAddress(host(c.getEndpoint()), port(c.getEndpoint())))
+				.collect(Collectors.toList()));
+	}
+
+	@After
+	public void teardown() {
+		balancer.close();
+		fixtures.release();
+	}
+
+	/**
+	 * Known driver bug: the driver passes the TTL to an {@code HttpClientBuilder} which also gets its own connection
+	 * manager, and the builder only applies the TTL to connection managers it creates itself. It skips the assertion on
+	 * the TTL runs after they were measured. Drop this once the driver is fixed.
+	 *
+	 * @return {@code false} if the driver ignores {@code connectionTtl} for the protocol
+	 */
+	private boolean honoursTtl() {
+		return protocol == Protocol.VST;
+	}
+
+	@Test
+	public void ttlChurn() throws InterruptedException {
+		final List<Long> rebalances = new ArrayList<>();
+		for (final String ttl : TTLS) {
+			final Long ttlMillis = NO_TTL.equals(ttl) ? null : Long.valueOf(ttl);
+			final ArangoDB.Builder builder = new ArangoDB.Builder().host(balancer.getHost(), balancer.getPort())
+					.useProtocol(protocol).loadBalancingStrategy(LoadBalancingStrategy.ROUND_ROBIN)
+					.maxConnections(CONNECTIONS);
+			if (ttlMillis != null) {
+				builder.connectionTtl(ttlMillis);
+			}
+			arango = instrument(builder.build());
+			final long rebalance;
+			try {
+				rebalance = churn(ttl, ttlMillis);
+			} finally {
+				arango.shutdown();
+			}
+			if (ttlMillis == null) {
+				// without a TTL the restarted coordinator gets no connection as long as the others are fine
+				assertThat(rebalance, is(-1L));
+			} else {
+				rebalances.add(rebalance);
+			}
+		}
+		assumeTrue("the driver ignores connectionTtl for " + protocol, honoursTtl());
+		// assert that expiring connections spread the load to the restarted coordinator again
+		assertThat(rebalances, everyItem(greaterThanOrEqualTo(0L)));
+	}
+
+	private static String serverId(final Instance coordinator) {
+		final ArangoDB direct = new ArangoDB.Builder()
+				.host(host(coordinator.getEndpoint()), port(coordinator.getEndpoint())).build();
+		try {
+			return direct.execute(new Request("_system", RequestType.GET, "/_admin/status")).getBody()
+					.get("serverInfo").get("serverId").getAsString();
+		} finally {
+			direct.shutdown();
+		}
+	}
+
+	/**
+	 * @return milliseconds from the restart of a killed coordinator until it got its share of the traffic again,
+	 *         {@code -1} if it did not
+	 */
+	private long churn(final String ttl, final Long ttlMillis) throws InterruptedException {
+		final Traffic traffic = new Traffic();
+		traffic.start();
+		// measure at least two TTL periods of steady traffic
+		final long steady = Math.max(STEADY, ttlMillis != null ? 2 * ttlMillis : 0L);
+		Thread.sleep(STEADY / 2);
+		final long acceptedBefore = balancer.getAcceptedConnections();
+		traffic.measure(true);
+		Thread.sleep(steady);
+		traffic.measure(false);
+		final double reconnectsPerSecond = (balancer.getAcceptedConnections() - acceptedBefore) * 1000.0 / steady;
+
+		final Instance coordinator = im.coordinators().stream().findFirst().get();
+		final String serverId = serverId(coordinator);
+		im.kill(coordinator);
+		// let the driver replace the broken connections by connections to the other coordinators
+		Thread.sleep(DOWNTIME);
+		im.restart(coordinator);
+		final long restartedAt = System.nanoTime();
+		final long timeout = (ttlMillis != null ? 2 * ttlMillis : 0L) + REBALANCE_SLACK;
+		long rebalance = -1;
+		while (rebalance < 0 && NANOSECONDS.toMillis(System.nanoTime() - restartedAt) < timeout) {
+			Thread.sleep(Workload.BUCKET_MILLIS);
+			if (traffic.share(serverId, WINDOW) >= 0.5 / NUM_COORDINATORS) {
+				rebalance = NANOSECONDS.toMillis(System.nanoTime() - restartedAt);
+			}
+		}
+		traffic.stop();
+
+		final Histogram latency = traffic.latency;
+		final long median = latency.getValueAtPercentile(50);
+		final long spikes = latency.getCountBetweenValues(SPIKE * median, latency.getMaxValue());
+		LOGGER.info("{} ttl {}: {} reconnects/s, {} latency spikes, rebalanced after {} ms", protocol, ttl,
+			String.format("%.1f", reconnectsPerSecond), spikes, rebalance);
+		Reports.append("connection-ttl-churn.csv",
+			"protocol,ttlMillis,requests,errors,reconnectsPerSecond,latencyP50Ms,latencyP99Ms,latencyP999Ms,latencyMaxMs,spikes,rebalanceMillis",
+			String.format("%s,%s,%d,%d,%.1f,%.2f,%.2f,%.2f,%.2f,%d,%d", protocol, ttl, latency.getTotalCount(),
+				traffic.errors.sum(), reconnectsPerSecond, median / 1000.0,
+				latency.getValueAtPercentile(99) / 1000.0, latency.getValueAtPercentile(99.9) / 1000.0,
+				latency.getMaxValue() / 1000.0, spikes, rebalance));
+		return rebalance;
+	}
+
+	/**
+	 * Steady {@code GET /_admin/status} traffic from {@link #THREADS} threads, counting the answering coordinator per
+	 * {@link Workload#BUCKET_MILLIS} ms bucket.
+	 */
+	private class Traffic {
+
+		private final long startedAt = System.nanoTime();
+		private final Histogram latency = new Histogram(3);
+		private final LongAdder errors = new LongAdder();
+		private final ConcurrentSkipListMap<Long, Map<String, LongAdder>> buckets = new ConcurrentSkipListMap<>();
+		private final List<Thread> threads = new ArrayList<>();
+		private volatile boolean running = true;
+		private volatile boolean measuring;
+
+		void start() {
+			for (int i = 0; i < THREADS; i++) {
+				final Thread thread = new Thread(this::run, "ttl-churn-" + i);
+				thread.setDaemon(true);
+				threads.add(thread);
+				thread.start();
+			}
+		}
+
+		void measure(final boolean measuring) {
+			this.measuring = measuring;
+		}
+
+		void stop() throws InterruptedException {
+			running = false;
+			for (final Thread thread : threads) {
+				thread.join();
+			}
+		}
+
+		private void run() {
+			final Histogram local = new Histogram(3);
+			while (running) {
+				final long begin = System.nanoTime();
+				try {
+					final String serverId = arango
+							.execute(new Request("_system", RequestType.GET, "/_admin/status")).getBody()
+							.get("serverInfo").get("serverId").getAsString();
+					if (measuring) {
+						local.recordValue(MICROSECONDS.convert(System.nanoTime() - begin, NANOSECONDS));
+					}
+					buckets.computeIfAbsent(bucket(System.nanoTime()), b -> new ConcurrentHashMap<>())
+							.computeIfAbsent(serverId, s -> new LongAdder()).increment();
+				} catch (final RuntimeException e) {
+					errors.increment();
+				}
+			}
+			synchronized (latency) {
+				latency.add(local);
+			}
+		}
+
+		private long bucket(final long nanoTime) {
+			return NANOSECONDS.toMillis(nanoTime - startedAt) / Workload.BUCKET_MILLIS;
+		}
+
+		/**
+		 * @return share of the requests of the last {@code window} ms answered by {@code serverId}
+		 */
+		double share(final String serverId, final long window) {
+			final long current = bucket(System.nanoTime());
+			long total = 0;
+			long server = 0;
+			for (final Map<String, LongAdder> bucket : buckets
+					.subMap(current - window / Workload.BUCKET_MILLIS, current).values()) {
+				for (final Map.Entry<String, LongAdder> count : bucket.entrySet()) {
+					total += count.getValue().sum();
+					if (count.getKey().equals(serverId)) {
+						server += count.getValue().sum();
+					}
+				}
+			}
+			return total > 0 ? (double) server / total : 0.0;
+		}
+
+	}
+
+}
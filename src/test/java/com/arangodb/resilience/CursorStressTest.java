@@ -0,0 +1,229 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience;
+
+import static com.arangodb.resilience.util.EndpointUtils.host;
+import static com.arangodb.resilience.util.EndpointUtils.port;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoCursor;
+import com.arangodb.ArangoDB;
+import com.arangodb.ArangoDBException;
+import com.arangodb.Protocol;
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.model.AqlQueryOptions;
+import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Reports;
+
+/**
+ * Streams {@link #CURSORS} cursors with one result per batch at the same time through a round robin pool over all
+ * coordinators and kills one coordinator after a third of the batches. Cursor ids carry the short id of the
+ * coordinator owning the cursor, so every cursor can be assigned to its coordinator, and a batch request answered
+ * with "cursor not found" went to a wrong coordinator. Runs once per protocol, see
+ * {@link ProtocolComparison#protocols()}.
+ */
+@RunWith(Parameterized.class)
+public class CursorStressTest extends BaseTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(CursorStressTest.class);
+
+	private static final int NUM_COORDINATORS = 3;
+	// scaled down to run in the regular build, -Dresilience.cursors=500 -Dresilience.cursors.batches=2000 streams
+	// hundreds of cursors over thousands of batches
+	private static final int CURSORS = Integer.getInteger("resilience.cursors", 100);
+	private static final int BATCHES = Integer.getInteger("resilience.cursors.batches", 300);
+	private static final int ERROR_CURSOR_NOT_FOUND = 1600;
+	private static final long SERVER_SPECIFIC_MASK = 0xFFFF;
+
+	@Parameter
+	public Protocol protocol;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> protocols() {
+		return ProtocolComparison.parameters();
+	}
+
+	@Before
+	public void setup() {
+		fixtures.leaseCluster(1, NUM_COORDINATORS, 2);
+		final ArangoDB.Builder builder = new ArangoDB.Builder()
+				.loadBalancingStrategy(LoadBalancingStrategy.ROUND_ROBIN).maxConnections(NUM_COORDINATORS);
+		im.coordinators().forEach(c -> builder.host(host(c.getEndpoint()), port(c.getEndpoint())));
+		arango = instrument(builder.useProtocol(protocol).build());
+	}
+
+	@After
+	public void teardown() {
+		arango.shutdown();
+		fixtures.release();
+	}
+
+	/**
+	 * @return the short id a cursor created on the given coordinator carries in its id
+	 */
+	private long shortId(final Instance coordinator) {
+		final ArangoDB direct = new ArangoDB.Builder().useProtocol(protocol)
+				.host(host(coordinator.getEndpoint()), port(coordinator.getEndpoint())).build();
+		try (final ArangoCursor<Long> cursor = direct.db().query("FOR i IN 1..2 RETURN i", null,
+			new AqlQueryOptions().batchSize(1), Long.class)) {
+			return Long.parseLong(cursor.getId()) & SERVER_SPECIFIC_MASK;
+		} catch (final IOException e) {
+			throw new IllegalStateException(e);
+		} finally {
+			direct.shutdown();
+		}
+	}
+
+	@Test
+	public void cursorsThroughCoordinatorLoss() throws InterruptedException {
+		final Instance killed = im.coordinators().stream().findFirst().get();
+		final long killedShortId = shortId(killed);
+		final LongAdder batches = new LongAdder();
+		final List<CursorReader> readers = new ArrayList<>();
+		for (int i = 0; i < CURSORS; i++) {
+			readers.add(new CursorReader(batches));
+		}
+		final long start = System.nanoTime();
+		readers.forEach(CursorReader::start);
+		final long killAt = (long) CURSORS * BATCHES / 3;
+		while (batches.sum() < killAt && readers.stream().anyMatch(Thread::isAlive)) {
+			Thread.sleep(5);
+		}
+		final long batchesBeforeKill = batches.sum();
+		final long killedAfter = System.nanoTime() - start;
+		im.kill(killed);
+		for (final CursorReader reader : readers) {
+			reader.join();
+		}
+		final long elapsed = System.nanoTime() - start;
+
+		int completed = 0;
+		int failedOnKilled = 0;
+		int failedElsewhere = 0;
+		int wrongCoordinator = 0;
+		int wrongCoordinatorElsewhere = 0;
+		int wrongResults = 0;
+		for (final CursorReader reader : readers) {
+			final boolean onKilled = reader.home == killedShortId;
+			if (reader.error == null) {
+				completed++;
+			} else if (onKilled) {
+				failedOnKilled++;
+			} else {
+				failedElsewhere++;
+				LOGGER.warn("cursor {} failed after {} batches: {}", reader.cursorId, reader.received,
+					reader.error.getMessage());
+			}
+			if (reader.error instanceof IllegalStateException) {
+				wrongResults++;
+			}
+			if (reader.errorNum == ERROR_CURSOR_NOT_FOUND) {
+				wrongCoordinator++;
+				if (!onKilled) {
+					wrongCoordinatorElsewhere++;
+				}
+			}
+		}
+		final double beforeKill = batchesBeforeKill / (killedAfter / 1e9);
+		final double afterKill = (batches.sum() - batchesBeforeKill) / ((elapsed - killedAfter) / 1e9);
+		LOGGER.info(
+			"{}: {} cursors, {} completed, {} failed on the killed coordinator, {} failed elsewhere, {} batch requests to a wrong coordinator, {}/{} batches/s before/after the kill",
+			protocol, CURSORS, completed, failedOnKilled, failedElsewhere, wrongCoordinator,
+			String.format("%.0f", beforeKill), String.format("%.0f", afterKill));
+		Reports.append("cursor-stress.csv",
+			"protocol,cursors,batchesPerCursor,completed,failedOnKilled,failedElsewhere,wrongCoordinator,wrongResults,batchesPerSecondBeforeKill,batchesPerSecondAfterKill,seconds",
+			String.format("%s,%d,%d,%d,%d,%d,%d,%d,%.0f,%.0f,%.1f", protocol, CURSORS, BATCHES,
+				completed, failedOnKilled, failedElsewhere, wrongCoordinator, wrongResults, beforeKill, afterKill,
+				elapsed / 1e9));
+		// Cursors on the surviving coordinators can fail as well: all requests share the fail counter of the round
+		// robin host handler, so while cursors of the killed coordinator fail, it can exceed the number of hosts and
+		// the driver gives up on any request. Assert that they fail loudly, but are never misrouted or cut short.
+		assertThat(wrongCoordinatorElsewhere, is(0));
+		assertThat(wrongResults, is(0));
+		assertThat(completed, is(greaterThan(0)));
+	}
+
+	/**
+	 * Reads one cursor to the end and checks that the results arrive complete and in order.
+	 */
+	private class CursorReader extends Thread {
+
+		private final LongAdder batches;
+		private String cursorId;
+		private long home = -1;
+		private long received;
+		private Exception error;
+		private int errorNum;
+
+		CursorReader(final LongAdder batches) {
+			super("cursor-reader");
+			setDaemon(true);
+			this.batches = batches;
+		}
+
+		@Override
+		public void run() {
+			try (final ArangoCursor<Long> cursor = arango.db().query("FOR i IN 1.." + BATCHES + " RETURN i", null,
+				new AqlQueryOptions().batchSize(1), Long.class)) {
+				cursorId = cursor.getId();
+				home = Long.parseLong(cursorId) & SERVER_SPECIFIC_MASK;
+				while (cursor.hasNext()) {
+					final long value = cursor.next();
+					if (value != received + 1) {
+						throw new IllegalStateException("expected " + (received + 1) + " but got " + value);
+					}
+					received++;
+					batches.increment();
+				}
+				if (received != BATCHES) {
+					throw new IllegalStateException("cursor ended after " + received + " of " + BATCHES);
+				}
+			} catch (final ArangoDBException e) {
+				error = e;
+				errorNum = e.getErrorNum() != null ? e.getErrorNum() : 0;
+			} catch (final Exception e) {
+				error = e;
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,254 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience;
+
+import static com.arangodb.resilience.util.EndpointUtils.host;
+import static com.arangodb.resilience.util.EndpointUtils.port;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.internal.util.RequestUtils;
+import com.arangodb.resilience.util.Convergence;
+import com.arangodb.resilience.util.Distribution;
+import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Reports;
+import com.arangodb.velocypack.VPackBuilder;
+import com.arangodb.velocypack.ValueType;
+import com.arangodb.velocystream.Request;
+import com.arangodb.velocystream.RequestType;
+import com.arangodb.velocystream.Response;
+
+/**
+ * Runs a read-only workload against an active failover setup with 1 to N followers, once with every read going to
+ * the leader and once with {@code allowDirtyRead}, which lets the driver spread the reads over all servers. Reads per
+ * second, latency percentiles and the share every server answered are appended to {@code dirty-read-scaleout.csv}.
+ * Runs once per protocol, see {@link ProtocolComparison#protocols()}.
+ * <p>
+ * A cursor response does not tell which server answered it, so every {@link #SAMPLE_EVERY}th request of a caller asks
+ * {@code /_api/replication/server-id} with the same dirty read header instead. The driver routes it like the reads,
+ * and every server, real or simulated, answers it with its own id. Against simulated servers the throughput is bound
+ * by {@code aim.embedded.serverThreads}, only real servers tell whether dirty reads scale.
+ */
+@RunWith(Parameterized.class)
+public class DirtyReadScaleOutTest extends BaseTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DirtyReadScaleOutTest.class);
+
+	private static final List<Integer> FOLLOWERS = Arrays
+			.stream(System.getProperty("resilience.dirtyRead.followers", "1,2,3").split(",")).map(String::trim)
+			.map(Integer::valueOf).collect(Collectors.toList());
+	private static final int THREADS = Integer.getInteger("resilience.dirtyRead.threads", 96);
+	private static final long DURATION = Long.getLong("resilience.dirtyRead.millis", 1000L);
+	// enough connections per server that the server's workers, not the pool, limit the throughput
+	private static final int MAX_CONNECTIONS = 32;
+	// server-side work per read, without it the client's own CPU is the bottleneck
+	private static final String QUERY = "RETURN SLEEP(0.02)";
+	private static final int SAMPLE_EVERY = 10;
+
+	@Parameter
+	public Protocol protocol;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> protocols() {
+		return ProtocolComparison.parameters();
+	}
+
+	private volatile long deadline;
+
+	@Test
+	public void scaleOut() throws InterruptedException {
+		for (final int followers : FOLLOWERS) {
+			fixtures.leaseActiveFailover(followers + 1);
+			try {
+				im.waitForReplicationLeader();
+				final Instance leader = im.getReplicationLeader();
+				final List<String> servers = new ArrayList<>();
+				servers.add(serverId(leader));
+				final ArangoDB.Builder builder = new ArangoDB.Builder().useProtocol(protocol)
+						.maxConnections(MAX_CONNECTIONS).host(host(leader.getEndpoint()), port(leader.getEndpoint()));
+				im.singleServers().stream().filter(i -> !i.getName().equals(leader.getName())).forEach(i -> {
+					servers.add(serverId(i));
+					builder.host(host(i.getEndpoint()), port(i.getEndpoint()));
+				});
+				arango = instrument(builder.build());
+				try {
+					// the leader redirects like a follower until the agency announced it
+					assertThat(new Convergence().await(() -> arango.execute(read(false)),
+						r -> !r.getMeta().containsKey("X-Arango-Endpoint")).isConverged(), is(true));
+					final Run leaderOnly = run(servers, false);
+					final Run dirty = run(servers, true);
+					report(followers, "leader", leaderOnly, leaderOnly);
+					report(followers, "dirty", dirty, leaderOnly);
+					LOGGER.info("{} {} followers: {} reads/s leader-only, {} reads/s dirty", protocol, followers,
+						String.format("%.0f", leaderOnly.throughput()), String.format("%.0f", dirty.throughput()));
+					assertThat(leaderOnly.errors.sum(), is(0L));
+					assertThat(dirty.errors.sum(), is(0L));
+					assertThat(leaderOnly.servers.totals()[0], is(leaderOnly.sampled()));
+				} finally {
+					arango.shutdown();
+				}
+			} finally {
+				fixtures.release();
+			}
+		}
+	}
+
+	private static Request read(final boolean dirty) {
+		final Request request = new Request("_system", RequestType.POST, "/_api/cursor")
+				.setBody(new VPackBuilder().add(ValueType.OBJECT).add("query", QUERY).close().slice());
+		// the header AqlQueryOptions.allowDirtyRead(true) sets
+		return dirty ? RequestUtils.allowDirtyRead(request) : request;
+	}
+
+	private static Request sample(final boolean dirty) {
+		final Request request = new Request("_system", RequestType.GET, "/_api/replication/server-id");
+		return dirty ? RequestUtils.allowDirtyRead(request) : request;
+	}
+
+	private static String serverId(final Response response) {
+		return response.getBody().get("serverId").getAsString();
+	}
+
+	private String serverId(final Instance instance) {
+		final ArangoDB direct = new ArangoDB.Builder().useProtocol(protocol)
+				.host(host(instance.getEndpoint()), port(instance.getEndpoint())).build();
+		try {
+			return serverId(direct.execute(sample(false)));
+		} finally {
+			direct.shutdown();
+		}
+	}
+
+	/**
+	 * Sends reads from {@link #THREADS} threads for {@link #DURATION} ms.
+	 */
+	private Run run(final List<String> names, final boolean dirty) throws InterruptedException {
+		final Run run = new Run(new Distribution(names, THREADS));
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> callers = new ArrayList<>();
+		for (int i = 0; i < THREADS; i++) {
+			final int index = i;
+			final Thread caller = new Thread(() -> {
+				final Histogram latency = new Histogram(3);
+				try {
+					start.await();
+				} catch (final InterruptedException e) {
+					return;
+				}
+				for (long n = 1; System.nanoTime() < deadline; n++) {
+					final long begin = System.nanoTime();
+					try {
+						if (n % SAMPLE_EVERY == 0) {
+							run.servers.count(index, serverId(arango.execute(sample(dirty))));
+						} else {
+							arango.execute(read(dirty));
+							latency.recordValue(MICROSECONDS.convert(System.nanoTime() - begin, NANOSECONDS));
+						}
+					} catch (final RuntimeException e) {
+						run.errors.increment();
+					}
+				}
+				run.add(latency);
+			}, "dirty-read-" + i);
+			caller.setDaemon(true);
+			callers.add(caller);
+			caller.start();
+		}
+		final long begin = System.nanoTime();
+		deadline = begin + MILLISECONDS.toNanos(DURATION);
+		start.countDown();
+		for (final Thread caller : callers) {
+			caller.join();
+		}
+		run.elapsed = System.nanoTime() - begin;
+		return run;
+	}
+
+	private void report(final int followers, final String mode, final Run run, final Run baseline) {
+		final long[] totals = run.servers.totals();
+		final long sampled = run.sampled();
+		final String followerShares = Arrays.stream(totals, 1, totals.length)
+				.mapToObj(t -> String.format("%.3f", share(t, sampled))).collect(Collectors.joining(" "));
+		Reports.append("dirty-read-scaleout.csv",
+			"protocol,followers,mode,threads,reads,errors,readsPerSecond,latencyP50Ms,latencyP99Ms,speedup,samples,"
+					+ "leaderShare,followerShares,unknown",
+			String.format("%s,%d,%s,%d,%d,%d,%.0f,%.2f,%.2f,%.2f,%d,%.3f,%s,%d", protocol, followers, mode, THREADS,
+				run.latency.getTotalCount(), run.errors.sum(), run.throughput(),
+				run.latency.getValueAtPercentile(50) / 1000.0, run.latency.getValueAtPercentile(99) / 1000.0,
+				run.throughput() / baseline.throughput(), sampled, share(totals[0], sampled), followerShares,
+				run.servers.unknown()));
+	}
+
+	private static double share(final long count, final long total) {
+		return total > 0 ? count / (double) total : 0.0;
+	}
+
+	private static class Run {
+
+		private final Histogram latency = new Histogram(3);
+		private final LongAdder errors = new LongAdder();
+		private final Distribution servers;
+		private long elapsed;
+
+		Run(final Distribution servers) {
+			super();
+			this.servers = servers;
+		}
+
+		synchronized void add(final Histogram latency) {
+			this.latency.add(latency);
+		}
+
+		double throughput() {
+			return latency.getTotalCount() / (elapsed / 1e9);
+		}
+
+		long sampled() {
+			return Arrays.stream(servers.totals()).sum() + servers.unknown();
+		}
+
+	}
+
+}
@@ -27,7 +27,7 @@ import com.arangodb.internal.net.HostDescription;
  * @author Mark Vollmary
  *
  */
-public class FailoverAcquireHostListVstTest extends BaseFailoverTest {
+public class FailoverAcquireHostListTest extends BaseFailoverTest {
 
 	@Override
 	protected void configure(final Builder builder, final HostDescription leader) {
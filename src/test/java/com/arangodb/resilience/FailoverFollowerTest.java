@@ -23,96 +23,78 @@ package com.arangodb.resilience;
 import static com.arangodb.resilience.util.EndpointUtils.host;
 import static com.arangodb.resilience.util.EndpointUtils.port;
 import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.isIn;
 import static org.hamcrest.Matchers.not;
 import static org.hamcrest.Matchers.nullValue;
 import static org.junit.Assert.assertThat;
 
-import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
 
-import org.junit.After;
-import org.junit.Before;
 import org.junit.Test;
 
 import com.arangodb.ArangoDB;
 import com.arangodb.ArangoDB.Builder;
 import com.arangodb.internal.net.HostDescription;
+import com.arangodb.resilience.util.Convergence.Outcome;
+import com.arangodb.resilience.util.FailoverTimes;
 import com.arangodb.resilience.util.Instance;
-import com.arangodb.velocypack.VPackSlice;
 import com.arangodb.velocystream.Request;
 import com.arangodb.velocystream.RequestType;
+import com.arangodb.velocystream.Response;
 
 /**
+ * Failover of a driver which only knows the followers of the leader.
+ *
  * @author Mark Vollmary
  *
  */
-public class FailoverFollowerVstTest extends BaseTest {
-
-	private Instance leader;
-	private String uuid;
-
-	@Before
-	public void setup() {
-		im.startAgency();
-		im.startSingleServer(2);
-		im.waitForAllInstances();
-		im.waitForReplicationLeader();
-		uuid = im.getReplicationLeaderId();
-		leader = im.getReplicationLeader();
-		final ArangoDB.Builder builder = new ArangoDB.Builder();
-		configure(builder, new HostDescription(host(leader.getEndpoint()), port(leader.getEndpoint())));
-		arango = builder.build();
-	}
+public class FailoverFollowerTest extends BaseActiveFailoverTest {
 
+	@Override
 	protected void configure(final Builder builder, final HostDescription leader) {
 		im.singleServers().stream().filter(i -> port(i.getEndpoint()) != leader.getPort())
 				.forEach(i -> builder.host(host(i.getEndpoint()), port(i.getEndpoint())));
 	}
 
-	@After
-	public void teardown() {
-		arango.shutdown();
-		im.cleanup();
+	/**
+	 * @return the server ids of the single servers except the leader, asked directly without the tested driver
+	 */
+	private Set<String> followerIds() {
+		return im.singleServers().stream().filter(i -> !i.getName().equals(leader.getName()))
+				.map(this::serverId).collect(Collectors.toSet());
 	}
 
-	protected String serverId() {
-		final VPackSlice execute = execute(RequestType.GET, "/_api/replication/server-id");
-		return execute.get("serverId").toString();
-	}
-
-	protected Map<String, String> responseHeader() {
-		return arango.execute(new Request("_system", RequestType.GET, "/_api/version")).getMeta();
+	private String serverId(final Instance instance) {
+		final ArangoDB direct = new ArangoDB.Builder().useProtocol(protocol)
+				.host(host(instance.getEndpoint()), port(instance.getEndpoint())).build();
+		try {
+			return serverId(direct.execute(new Request("_system", RequestType.GET, "/_api/replication/server-id")));
+		} finally {
+			direct.shutdown();
+		}
 	}
 
 	@Test
-	public void leaderDown() {
+	public void leaderDown() throws InterruptedException {
 		final String followerId = serverId();
 		assertThat(followerId, is(not(nullValue())));
 		assertThat(responseHeader().containsKey("X-Arango-Endpoint"), is(true));
+		final String leaderId = serverId(leader);
+		final Set<String> followerIds = followerIds();
+		final long killedAt = System.nanoTime();
 		im.kill(leader);
 		im.waitForReplicationLeader(uuid);
-		
-		
-		int sleepTime = 5000;
-		int currentRun = 0;
-		int maxRuns = 6;
-		
-		String newLeaderId = "";
-		while (currentRun < maxRuns) {
-			try {
-				Thread.sleep(sleepTime); // agency plan is upgraded but new leader still responses with header
-									// "X-Arango-Endpoint"
-			} catch (final InterruptedException e) {
-			}
-			newLeaderId = serverId();
-			if (!responseHeader().containsKey("X-Arango-Endpoint")) {
-				break;
-			}
-			currentRun++;
-		}
+		// agency plan is upgraded but new leader still responses with header "X-Arango-Endpoint"
+		final Outcome<Response> failover = probing().await(this::serverIdResponse,
+			r -> !r.getMeta().containsKey("X-Arango-Endpoint"));
+		FailoverTimes.record(getClass().getSimpleName() + "[" + cell() + "].leaderDown", failover, killedAt);
 
-		
+		// with more than one follower any of them can be elected, but never the killed leader
+		final String newLeaderId = serverId();
 		assertThat(newLeaderId, is(not(nullValue())));
-		assertThat(followerId, is(newLeaderId));
+		assertThat(newLeaderId, is(not(leaderId)));
+		assertThat(newLeaderId, isIn(followerIds));
 		assertThat(responseHeader().containsKey("X-Arango-Endpoint"), is(false));
 	}
 
@@ -30,7 +30,7 @@ import com.arangodb.internal.net.HostDescription;
  * @author Mark Vollmary
  *
  */
-public class FailoverStaticHostListVstTest extends BaseFailoverTest {
+public class FailoverStaticHostListTest extends BaseFailoverTest {
 
 	@Override
 	protected void configure(final Builder builder, final HostDescription leader) {
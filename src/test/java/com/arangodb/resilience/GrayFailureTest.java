@@ -0,0 +1,299 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience;
+
+import static com.arangodb.resilience.util.EndpointUtils.host;
+import static com.arangodb.resilience.util.EndpointUtils.port;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThan;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.model.AqlQueryOptions;
+import com.arangodb.resilience.proxy.FaultProxy;
+import com.arangodb.resilience.util.Convergence;
+import com.arangodb.resilience.util.HistogramReport;
+import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Workload;
+import com.arangodb.velocypack.VPackSlice;
+import com.arangodb.velocystream.RequestType;
+
+/**
+ * Puts a {@link FaultProxy} in front of every coordinator and checks how the driver copes with gray failures: slow,
+ * throttled, reset, black-holed and half-open connections. Runs once per protocol, see
+ * {@link ProtocolComparison#protocols()}.
+ */
+@RunWith(Parameterized.class)
+public class GrayFailureTest extends BaseTest {
+
+	private static final int NUM_COORDINATORS = 3;
+	private static final int TIMEOUT = 1000;
+	private static final int REQUESTS = 2 * NUM_COORDINATORS;
+	// scheduling slack on top of the driver timeout
+	private static final long TIMEOUT_SLACK = 500L;
+	// delay of both directions, below half the timeout so the requests held back do not time out
+	private static final long STALL = 400L;
+	private static final long STALL_WARMUP = 1000L;
+	private static final long STALL_RECOVERY_TIMEOUT = 5000L;
+	private static final int STALL_THREADS = 4;
+
+	@Parameter
+	public Protocol protocol;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> protocols() {
+		return ProtocolComparison.parameters();
+	}
+
+	private static HistogramReport report;
+	private static String reportName;
+
+	private List<FaultProxy> proxies;
+
+	@Before
+	public void setup() {
+		fixtures.leaseCluster(1, NUM_COORDINATORS, 2);
+		proxies = new ArrayList<>();
+		for (final Instance coordinator : im.coordinators()) {
+			proxies.add(new FaultProxy("127.0.0.1", host(coordinator.getEndpoint()), port(coordinator.getEndpoint())));
+		}
+		final ArangoDB.Builder builder = new ArangoDB.Builder().useProtocol(protocol) //
+				.loadBalancingStrategy(LoadBalancingStrategy.ROUND_ROBIN) //
+				.timeout(TIMEOUT);
+		proxies.forEach(p -> builder.host(p.getHost(), p.getPort()));
+		arango = instrument(builder.build());
+		if (report == null) {
+			reportName = "gray-failures-" + getClass().getSimpleName() + ".txt";
+			report = new HistogramReport(getClass().getSimpleName() + ": " + REQUESTS
+					+ " requests per fault through proxies in front of " + NUM_COORDINATORS + " coordinators");
+		}
+	}
+
+	/**
+	 * The driver's {@code VstConnection} does not close its socket when a write fails, only its reader thread does
+	 * once it read the reset itself. The first request after the reset fails with "Connection reset by peer"; the next
+	 * one to the same coordinator can still find the connection open and fails with "Broken pipe". The reader thread
+	 * got the reset before the first write failed, so it has closed the socket by the third request, which
+	 * reconnects.
+	 *
+	 * @return how many requests to the same coordinator can fail after its connections were reset, before the driver
+	 *         has to reconnect
+	 */
+	private int failuresPerReset() {
+		return protocol == Protocol.VST ? 2 : 1;
+	}
+
+	@After
+	public void teardown() {
+		arango.shutdown();
+		proxies.forEach(FaultProxy::close);
+		fixtures.release();
+	}
+
+	@AfterClass
+	public static void writeReport() {
+		if (report != null) {
+			report.write(reportName);
+			report = null;
+		}
+	}
+
+	private String serverId() {
+		final VPackSlice execute = execute(RequestType.GET, "/_admin/status");
+		return execute.get("serverInfo").get("serverId").toString();
+	}
+
+	/**
+	 * Sends {@link #REQUESTS} requests, see {@link #requests(String, int)}.
+	 */
+	private Results requests(final String fault) {
+		return requests(fault, REQUESTS);
+	}
+
+	/**
+	 * Sends the requests one after the other and records the latency of the successful ones, the time until the failed
+	 * ones gave up and the number of failures.
+	 */
+	private Results requests(final String fault, final int requests) {
+		final Results results = new Results();
+		for (int i = 0; i < requests; i++) {
+			final long start = System.nanoTime();
+			try {
+				results.serverIds.add(serverId());
+				report.histogram(protocol + " " + fault + " latency", "ms", 1000)
+						.recordValue(MICROSECONDS.convert(System.nanoTime() - start, NANOSECONDS));
+			} catch (final RuntimeException e) {
+				final long failedAfter = MICROSECONDS.convert(System.nanoTime() - start, NANOSECONDS);
+				report.histogram(protocol + " " + fault + " time-to-error", "ms", 1000).recordValue(failedAfter);
+				results.failures++;
+				results.slowestFailure = Math.max(results.slowestFailure, MICROSECONDS.toMillis(failedAfter));
+			}
+		}
+		report.histogram(protocol + " " + fault + " failures", "count").recordValue(results.failures);
+		return results;
+	}
+
+	@Test
+	public void latency() {
+		requests("none");
+		proxies.forEach(p -> p.latency(50, 10));
+		final long start = System.nanoTime();
+		final Results results = requests("latency");
+		assertThat(results.failures, is(0));
+		// every request and every response is delayed
+		assertThat(NANOSECONDS.toMillis(System.nanoTime() - start), is(greaterThanOrEqualTo(REQUESTS * 100L)));
+	}
+
+	@Test
+	public void bandwidthCap() {
+		// the megabyte per coordinator queued by a latency before the cap must not count against it
+		proxies.forEach(p -> p.latency(1, 0));
+		for (int i = 0; i < NUM_COORDINATORS; i++) {
+			assertThat(query(200000), is(200000));
+		}
+		proxies.forEach(p -> p.latency(0, 0));
+		final long bytesPerSecond = 64 * 1024;
+		proxies.forEach(p -> p.bandwidth(bytesPerSecond));
+		final long before = proxies.stream().mapToLong(FaultProxy::getBytesToClient).sum();
+		final long start = System.nanoTime();
+		assertThat(query(5000), is(5000));
+		final long millis = NANOSECONDS.toMillis(System.nanoTime() - start);
+		final long bytes = proxies.stream().mapToLong(FaultProxy::getBytesToClient).sum() - before;
+		report.histogram(protocol + " bandwidth-cap response", "ms").recordValue(millis);
+		// the first 100 ms worth of data pass as a burst
+		assertThat(millis, is(greaterThanOrEqualTo((bytes - bytesPerSecond / 10) * 1000 / bytesPerSecond)));
+		// and the rest is throttled, not stalled
+		assertThat(millis, is(lessThan(2 * bytes * 1000 / bytesPerSecond + 1000)));
+	}
+
+	/**
+	 * @return the number of results of a query returning {@code 1..results} in a single batch
+	 */
+	private int query(final int results) {
+		return arango.db().query("FOR i IN 1.." + results + " RETURN i", new AqlQueryOptions().batchSize(results),
+			VPackSlice.class).asListRemaining().size();
+	}
+
+	@Test
+	public void connectionsReset() {
+		requests("none");
+		proxies.forEach(FaultProxy::resetConnections);
+		// HTTP notices the reset when it takes the connection from the pool, VST only when the next request fails;
+		// one request more per coordinator than may fail, so every coordinator has to answer again within the phase
+		final Results reset = requests("reset", (failuresPerReset() + 1) * NUM_COORDINATORS);
+		assertThat(reset.failures, is(lessThanOrEqualTo(failuresPerReset() * NUM_COORDINATORS)));
+		assertThat(reset.distinctServers(), is(NUM_COORDINATORS));
+		// assert that the driver reconnects to every coordinator
+		final Results results = requests("after-reset");
+		assertThat(results.failures, is(0));
+		assertThat(results.distinctServers(), is(NUM_COORDINATORS));
+	}
+
+	@Test
+	public void newConnectionsReset() {
+		proxies.get(0).resetNewConnections(true);
+		final Results results = requests("reset-new");
+		// a reset during connect fails over, a reset after the connect (VST handshake) fails the request
+		assertThat(results.failures, is(lessThanOrEqualTo(REQUESTS / NUM_COORDINATORS)));
+		assertThat(results.distinctServers(), is(NUM_COORDINATORS - 1));
+	}
+
+	@Test
+	public void coordinatorBlackholed() {
+		requests("none");
+		proxies.get(0).blackhole(true);
+		final Results results = requests("blackhole");
+		// requests to the black-holed coordinator fail, but never take much longer than the timeout
+		assertThat(results.distinctServers(), is(NUM_COORDINATORS - 1));
+		assertThat(results.slowestFailure, is(lessThan(TIMEOUT + TIMEOUT_SLACK)));
+	}
+
+	@Test
+	public void coordinatorHalfOpen() {
+		requests("none");
+		proxies.get(0).halfOpenConnections();
+		final Results results = requests("half-open");
+		assertThat(results.distinctServers(), is(greaterThanOrEqualTo(NUM_COORDINATORS - 1)));
+		assertThat(results.slowestFailure, is(lessThan(TIMEOUT + TIMEOUT_SLACK)));
+	}
+
+	/**
+	 * Holds back all traffic of a running {@link Workload} for {@link #STALL} ms, so no operation completes at all for
+	 * a while, and checks that the stall shows up in the throughput curve as buckets without successes.
+	 */
+	@Test
+	public void workloadStall() throws InterruptedException {
+		final Workload workload = new Workload(arango, "stall", STALL_THREADS, 0.5).start();
+		try {
+			MILLISECONDS.sleep(STALL_WARMUP);
+			workload.mark("stall");
+			proxies.forEach(p -> p.latency(STALL, 0));
+			MILLISECONDS.sleep(STALL);
+			proxies.forEach(FaultProxy::heal);
+			assertThat(new Convergence().timeout(STALL_RECOVERY_TIMEOUT).await(workload::isRecovered, r -> r)
+					.isConverged(), is(true));
+		} finally {
+			workload.stop();
+		}
+		workload.write("workload-stall-" + getClass().getSimpleName() + "-" + protocol);
+		assertThat(workload.errors(), is(0L));
+		assertThat(workload.minimumAfterMark(), is(0L));
+		// every operation in flight at the mark waits for its delayed response
+		assertThat(workload.longestStall(), is(greaterThanOrEqualTo(STALL - 2 * Workload.BUCKET_MILLIS)));
+		assertThat(workload.dipMillis(), is(greaterThanOrEqualTo(STALL - Workload.BUCKET_MILLIS)));
+	}
+
+	private static class Results {
+
+		private final List<String> serverIds = new ArrayList<>();
+		private int failures;
+		private long slowestFailure;
+
+		int distinctServers() {
+			return (int) serverIds.stream().distinct().count();
+		}
+
+	}
+
+}
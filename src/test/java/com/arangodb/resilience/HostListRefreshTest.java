@@ -0,0 +1,271 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.Histogram;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.internal.net.HostDescription;
+import com.arangodb.resilience.util.HostListRefresher;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Reports;
+import com.sun.management.ThreadMXBean;
+import com.sun.management.UnixOperatingSystemMXBean;
+
+/**
+ * Scales the number of coordinators a driver with {@code acquireHostList(true)} balances over and measures what a
+ * refresh of the host list costs: how long the refresh takes, how requests in flight during a refresh compare to the
+ * others, how many file descriptors the refreshes leave behind, how many bytes every refresh allocates (churn, mostly
+ * garbage) and how much heap the driver retains for the host list: the heap after a full GC with the driver built
+ * minus the heap after a full GC once it is shut down and unreachable. The JVM hosts the embedded servers as well, so
+ * their state per connection of the driver is part of the retained heap. Runs once per protocol, see
+ * {@link ProtocolComparison#protocols()}. Every coordinator count is appended to {@code host-list-refresh.csv}.
+ */
+@RunWith(Parameterized.class)
+public class HostListRefreshTest extends BaseTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(HostListRefreshTest.class);
+
+	private static final List<Integer> COORDINATORS = Arrays
+			.stream(System.getProperty("resilience.hostList.coordinators", "1,4,16,64").split(","))
+			.map(String::trim).map(Integer::valueOf).collect(Collectors.toList());
+	private static final int REFRESHES = Integer.getInteger("resilience.hostList.refreshes", 20);
+	private static final int THREADS = Integer.getInteger("resilience.hostList.threads", 8);
+	private static final long REFRESH_INTERVAL = 50L;
+	// heap measurements: GCs at most, GCs in a row within GC_SETTLED bytes of the previous one, pause before a GC
+	private static final int GC_ROUNDS = 30;
+	private static final int GC_STABLE = 3;
+	private static final long GC_SETTLED = 64 * 1024L;
+	private static final long GC_PAUSE = 200L;
+
+	@Parameter
+	public Protocol protocol;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> protocols() {
+		return ProtocolComparison.parameters();
+	}
+
+	private volatile boolean running;
+	// window of the latest refresh, an end before the start means it is still running
+	private volatile long refreshStart;
+	private volatile long refreshEnd;
+
+	private ArangoDB build(final HostDescription endpoint) {
+		return new ArangoDB.Builder().useProtocol(protocol).host(endpoint.getHost(), endpoint.getPort())
+				.acquireHostList(true).loadBalancingStrategy(LoadBalancingStrategy.ROUND_ROBIN).build();
+	}
+
+	@Test
+	public void refresh() throws InterruptedException {
+		for (final int coordinators : COORDINATORS) {
+			final HostDescription endpoint = fixtures.leaseCluster(1, coordinators, 1);
+			try {
+				final long fdsBefore = openFileDescriptors();
+				arango = instrument(build(endpoint));
+				final Run run;
+				final long heapBuilt;
+				try {
+					run = exercise();
+					heapBuilt = heapAfterGc();
+				} finally {
+					arango.shutdown();
+					arango = null;
+				}
+				final long retainedBytes = heapBuilt - heapAfterGc();
+				final int hosts = run.hosts;
+				final long fdsLeaked = fdsBefore >= 0 ? openFileDescriptors() - fdsBefore : -1;
+				final String errors = run.errors.entrySet().stream().map(e -> e.getKey() + " x" + e.getValue().sum())
+						.collect(Collectors.joining(" ", "", run.errors.isEmpty() ? "none" : ""));
+				LOGGER.info(
+					"{} {} coordinators: refresh p50 {} us, max {} us, in-flight p99 {} us vs {} us, {} fds leaked, {} bytes allocated per refresh, {} bytes retained, errors: {}",
+					protocol, coordinators, run.refresh.getValueAtPercentile(50), run.refresh.getMaxValue(),
+					run.during.getValueAtPercentile(99), run.outside.getValueAtPercentile(99), fdsLeaked,
+					run.allocated.getMean(), retainedBytes, errors);
+				Reports.append("host-list-refresh.csv",
+					"protocol,coordinators,hosts,refreshes,refreshP50Ms,refreshMaxMs,requests,duringRefreshP50Ms,duringRefreshP99Ms,otherP50Ms,otherP99Ms,errors,fdsLeaked,allocatedBytesPerRefresh,retainedBytes",
+					String.format("%s,%d,%d,%d,%.2f,%.2f,%d,%.2f,%.2f,%.2f,%.2f,%s,%d,%.0f,%d", protocol, coordinators,
+						hosts, run.refresh.getTotalCount(), run.refresh.getValueAtPercentile(50) / 1000.0,
+						run.refresh.getMaxValue() / 1000.0, run.during.getTotalCount() + run.outside.getTotalCount(),
+						run.during.getValueAtPercentile(50) / 1000.0, run.during.getValueAtPercentile(99) / 1000.0,
+						run.outside.getValueAtPercentile(50) / 1000.0, run.outside.getValueAtPercentile(99) / 1000.0,
+						errors, fdsLeaked, run.allocated.getMean(), retainedBytes));
+				assertThat(hosts, is(coordinators));
+				assertThat(run.refresh.getTotalCount(), is((long) REFRESHES));
+				assertThat(run.outside.getTotalCount(), is(greaterThan(0L)));
+			} finally {
+				fixtures.release();
+			}
+		}
+	}
+
+	/**
+	 * Acquires the host list and refreshes it under load. The refresher references the driver internals, so it must
+	 * not outlive this call for the driver to become unreachable after its shutdown.
+	 */
+	private Run exercise() throws InterruptedException {
+		// the first request acquires the host list
+		arango.getVersion();
+		final HostListRefresher refresher = new HostListRefresher(arango);
+		final Run run = run(refresher);
+		run.hosts = refresher.hosts().size();
+		return run;
+	}
+
+	/**
+	 * Sends {@code GET /_api/version} from {@link #THREADS} threads while the host list is refreshed
+	 * {@link #REFRESHES} times, every {@link #REFRESH_INTERVAL} ms.
+	 */
+	private Run run(final HostListRefresher refresher) throws InterruptedException {
+		final Run run = new Run();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> callers = new ArrayList<>();
+		running = true;
+		for (int i = 0; i < THREADS; i++) {
+			final Thread caller = new Thread(() -> {
+				final Histogram during = new Histogram(3);
+				final Histogram outside = new Histogram(3);
+				try {
+					start.await();
+				} catch (final InterruptedException e) {
+					return;
+				}
+				while (running) {
+					final long begin = System.nanoTime();
+					try {
+						arango.getVersion();
+						final long end = System.nanoTime();
+						final long started = refreshStart;
+						final long ended = refreshEnd;
+						final boolean overlaps = started > 0 && started <= end && (ended < started || ended >= begin);
+						(overlaps ? during : outside).recordValue(MICROSECONDS.convert(end - begin, NANOSECONDS));
+					} catch (final RuntimeException e) {
+						run.errors.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+					}
+				}
+				run.add(during, outside);
+			}, "host-list-" + i);
+			caller.setDaemon(true);
+			callers.add(caller);
+			caller.start();
+		}
+		start.countDown();
+		try {
+			for (int i = 0; i < REFRESHES; i++) {
+				MILLISECONDS.sleep(REFRESH_INTERVAL);
+				final long allocated = allocatedBytes();
+				refreshStart = System.nanoTime();
+				final long nanos = refresher.refresh();
+				refreshEnd = System.nanoTime();
+				run.allocated.recordValue(allocatedBytes() - allocated);
+				run.refresh.recordValue(MICROSECONDS.convert(nanos, NANOSECONDS));
+			}
+			MILLISECONDS.sleep(REFRESH_INTERVAL);
+		} finally {
+			running = false;
+			for (final Thread caller : callers) {
+				caller.join();
+			}
+		}
+		return run;
+	}
+
+	/**
+	 * @return bytes allocated by the current thread so far, covers the host structures a refresh creates and the
+	 *         garbage it leaves behind
+	 */
+	private static long allocatedBytes() {
+		return ((ThreadMXBean) ManagementFactory.getThreadMXBean()).getThreadAllocatedBytes(Thread.currentThread()
+				.getId());
+	}
+
+	/**
+	 * @return heap in use after a full GC, repeated until {@link #GC_STABLE} GCs in a row agree: closed connections
+	 *         release their memory only once their threads ended and their cleaners ran
+	 */
+	private static long heapAfterGc() throws InterruptedException {
+		long previous = -1;
+		int stable = 0;
+		for (int i = 0; i < GC_ROUNDS && stable < GC_STABLE; i++) {
+			MILLISECONDS.sleep(GC_PAUSE);
+			System.gc();
+			final long used = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+			stable = Math.abs(previous - used) < GC_SETTLED ? stable + 1 : 0;
+			previous = used;
+		}
+		return previous;
+	}
+
+	/**
+	 * @return open file descriptors of the JVM, client and simulated servers alike, or {@code -1} if unknown
+	 */
+	private static long openFileDescriptors() {
+		final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		return os instanceof UnixOperatingSystemMXBean ? ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount()
+				: -1;
+	}
+
+	private static class Run {
+
+		private final Histogram refresh = new Histogram(3);
+		private final Histogram allocated = new Histogram(3);
+		private final Histogram during = new Histogram(3);
+		private final Histogram outside = new Histogram(3);
+		private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+		private int hosts;
+
+		synchronized void add(final Histogram during, final Histogram outside) {
+			this.during.add(during);
+			this.outside.add(outside);
+		}
+
+	}
+
+}
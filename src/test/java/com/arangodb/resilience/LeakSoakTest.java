@@ -0,0 +1,168 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience;
+
+import static com.arangodb.resilience.util.EndpointUtils.host;
+import static com.arangodb.resilience.util.EndpointUtils.port;
+import static org.hamcrest.Matchers.empty;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.resilience.util.Footprint;
+import com.arangodb.resilience.util.Footprint.Metric;
+import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Reports;
+
+/**
+ * Repeats driver lifecycles (build, use, shutdown) and coordinator failovers inside one driver and samples the
+ * footprint of the JVM in between, see {@link Footprint}. A metric growing monotonically over the cycles fails the
+ * test. Runs once per protocol, see {@link ProtocolComparison#protocols()}. The suite runs
+ * {@code -Dresilience.leak.cycles} (default 100) cycles; a soak run sets thousands. Samples are written to
+ * {@code leak-<test>-<protocol>-<phase>.csv}, the growth per metric is appended to {@code leak-summary.csv}.
+ */
+@RunWith(Parameterized.class)
+public class LeakSoakTest extends BaseTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(LeakSoakTest.class);
+
+	private static final int CYCLES = Integer.getInteger("resilience.leak.cycles", 100);
+	private static final int SAMPLES = Integer.getInteger("resilience.leak.samples", 10);
+	// samples before the pools and caches of driver and servers are filled
+	private static final int WARMUP_SAMPLES = 2;
+	private static final int NUM_COORDINATORS = 3;
+	private static final int REQUESTS = 10;
+
+	@Parameter
+	public Protocol protocol;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> protocols() {
+		return ProtocolComparison.parameters();
+	}
+
+	private List<Instance> coordinators;
+
+	@Before
+	public void setup() {
+		fixtures.leaseCluster(1, NUM_COORDINATORS, 1);
+		coordinators = new ArrayList<>(im.coordinators());
+	}
+
+	@After
+	public void teardown() {
+		if (arango != null) {
+			arango.shutdown();
+		}
+		fixtures.release();
+	}
+
+	private ArangoDB build() {
+		final ArangoDB.Builder builder = new ArangoDB.Builder().useProtocol(protocol)
+				.loadBalancingStrategy(LoadBalancingStrategy.ROUND_ROBIN);
+		coordinators.forEach(i -> builder.host(host(i.getEndpoint()), port(i.getEndpoint())));
+		return instrument(builder.build());
+	}
+
+	private static void use(final ArangoDB driver) {
+		for (int i = 0; i < REQUESTS; i++) {
+			try {
+				driver.getVersion();
+			} catch (final RuntimeException e) {
+				// requests to a killed coordinator fail until the driver moved on
+			}
+		}
+	}
+
+	/**
+	 * Builds a driver, sends {@link #REQUESTS} requests over every coordinator and shuts it down again.
+	 */
+	@Test
+	public void driverLifecycles() {
+		final Footprint footprint = new Footprint();
+		for (int cycle = 0; cycle < CYCLES; cycle++) {
+			final ArangoDB driver = build();
+			use(driver);
+			driver.shutdown();
+			sample(footprint, cycle);
+		}
+		check(footprint, "lifecycles");
+	}
+
+	/**
+	 * Kills a coordinator, lets the driver fail over to the others, restarts the coordinator and uses it again, always
+	 * with the same driver.
+	 */
+	@Test
+	public void failovers() {
+		arango = build();
+		final Footprint footprint = new Footprint();
+		for (int cycle = 0; cycle < CYCLES; cycle++) {
+			final Instance coordinator = coordinators.get(cycle % coordinators.size());
+			im.kill(coordinator);
+			use(arango);
+			im.restart(coordinator);
+			im.waitForInstance(coordinator.getName());
+			use(arango);
+			sample(footprint, cycle);
+		}
+		check(footprint, "failovers");
+	}
+
+	private static void sample(final Footprint footprint, final int cycle) {
+		final int every = Math.max(1, CYCLES / SAMPLES);
+		if (cycle == 0 || (cycle + 1) % every == 0) {
+			footprint.sample(cycle + 1);
+		}
+	}
+
+	private void check(final Footprint footprint, final String phase) {
+		footprint.write("leak-" + getClass().getSimpleName() + "-" + protocol + "-" + phase);
+		final List<Metric> growing = footprint.growing(WARMUP_SAMPLES);
+		for (final Metric metric : Metric.values()) {
+			final long growth = footprint.growth(metric, WARMUP_SAMPLES);
+			Reports.append("leak-summary.csv", "protocol,phase,cycles,metric,growth,growthPerCycle,monotonic",
+				String.format("%s,%s,%d,%s,%d,%.1f,%b", protocol, phase, CYCLES, metric.name().toLowerCase(), growth,
+					growth / (double) CYCLES, growing.contains(metric)));
+		}
+		LOGGER.info("{} {} over {} cycles: growing {}", protocol, phase, CYCLES, growing);
+		assertThat(growing, is(empty()));
+	}
+
+}
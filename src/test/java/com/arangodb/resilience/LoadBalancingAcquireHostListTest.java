@@ -27,7 +27,7 @@ import com.arangodb.internal.net.HostDescription;
  * @author Mark Vollmary
  *
  */
-public class LoadBalancingAcquireHostListVstTest extends BaseLoadBalancingTest {
+public class LoadBalancingAcquireHostListTest extends BaseLoadBalancingTest {
 
 	@Override
 	protected void configure(final Builder builder, final HostDescription endpoint) {
@@ -35,4 +35,9 @@ public class LoadBalancingAcquireHostListVstTest extends BaseLoadBalancingTest {
 		builder.acquireHostList(true);
 	}
 
+	@Override
+	protected boolean randomSpreadBroken() {
+		return true;
+	}
+
 }
@@ -41,7 +41,7 @@ import com.arangodb.resilience.util.Instance;
  * @author Mark Vollmary
  *
  */
-public class LoadBalancingConnectionTtlVstTest extends BaseLoadBalancingTest {
+public class LoadBalancingConnectionTtlTest extends BaseLoadBalancingTest {
 
 	@Override
 	protected void configure(final Builder builder, final HostDescription endpoint) {
@@ -53,7 +53,7 @@ public class LoadBalancingConnectionTtlVstTest extends BaseLoadBalancingTest {
 	@Test
 	public void coordinatorUpAgainTtlSelfBalance() throws InterruptedException {
 		final List<String> serverIds = new ArrayList<>();
-		Stream.iterate(0, i -> i + 1).limit(NUM_COORDINATORS).forEach(i -> {
+		Stream.iterate(0, i -> i + 1).limit(numCoordinators()).forEach(i -> {
 			final String serverId = serverId();
 			// assert that every call goes to a different coordinator
 			assertThat(serverIds, not(hasItem(serverId)));
@@ -62,16 +62,21 @@ public class LoadBalancingConnectionTtlVstTest extends BaseLoadBalancingTest {
 		final Instance coordinator = im.coordinators().stream().findFirst().get();
 		im.shutdown(coordinator);
 		assertThat(im.isRunning(coordinator), is(false));
-		// perform 3 operations to be sure that all connections are used
-		Stream.iterate(0, i -> i + 1).limit(NUM_COORDINATORS).map(i -> arango.getVersion());
+		// perform one operation per coordinator to be sure that all connections are used
+		Stream.iterate(0, i -> i + 1).limit(numCoordinators()).map(i -> arango.getVersion());
 		Thread.sleep(4 * 1000L); // wait until all connection ttls are expired
 		im.restart(coordinator);
 		assertThat(im.isRunning(coordinator), is(true));
-		final List<String> thirdRun = Stream.iterate(0, i -> i + 1).limit(NUM_COORDINATORS).map(i -> serverId())
+		final List<String> thirdRun = Stream.iterate(0, i -> i + 1).limit(numCoordinators()).map(i -> serverId())
 				.collect(Collectors.toList());
 		assertThat(serverIds, hasItems(thirdRun.toArray(new String[] {})));
-		// assert that the thridRun includes all 3 coordinators
+		// assert that the thridRun includes all coordinators
 		assertThat(serverIds.stream().filter(i -> !thirdRun.contains(i)).count(), is(0L));
 	}
 
+	@Override
+	protected boolean randomSpreadBroken() {
+		return true;
+	}
+
 }
@@ -30,7 +30,7 @@ import com.arangodb.internal.net.HostDescription;
  * @author Mark Vollmary
  *
  */
-public class LoadBalancingStaticCoordinatorListVstTest extends BaseLoadBalancingTest {
+public class LoadBalancingStaticCoordinatorListTest extends BaseLoadBalancingTest {
 
 	@Override
 	protected void configure(final Builder builder, final HostDescription endpoint) {
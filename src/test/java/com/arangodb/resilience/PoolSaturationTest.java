@@ -0,0 +1,251 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience;
+
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.Histogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.internal.net.HostDescription;
+import com.arangodb.resilience.embedded.SimulatedServer;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Reports;
+import com.arangodb.velocypack.VPackBuilder;
+import com.arangodb.velocypack.ValueType;
+import com.arangodb.velocystream.Request;
+import com.arangodb.velocystream.RequestType;
+import com.arangodb.velocystream.Response;
+
+/**
+ * Sweeps {@code maxConnections} against the number of caller threads on one coordinator and splits the latency of
+ * every request into the time the server spent on it and the residual outside the server, which is dominated by
+ * waiting for a pooled connection once the callers outnumber the connections. The driver waits for a connection
+ * inside the connection itself (the HTTP client's pool, the VST write), so the wait cannot be timed on its own. Every
+ * configuration of every protocol, see {@link ProtocolComparison#protocols()}, is appended to
+ * {@code pool-saturation.csv}, with {@code -1} for server time and residual when the server does not report its time.
+ */
+@RunWith(Parameterized.class)
+public class PoolSaturationTest extends BaseTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PoolSaturationTest.class);
+
+	private static final List<Integer> MAX_CONNECTIONS = integers("resilience.saturation.maxConnections", "1,4,16");
+	private static final List<Integer> THREADS = integers("resilience.saturation.threads", "1,4,16,64,256");
+	private static final long DURATION = Long.getLong("resilience.saturation.millis", 500L);
+	// server-side work per request, without it the client's own CPU is the bottleneck
+	private static final String QUERY = "RETURN SLEEP(0.002)";
+	// throughput has to grow by at least 10% from one thread count to the next to count as scaling
+	private static final double SCALING = 1.1;
+
+	@Parameter
+	public Protocol protocol;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> protocols() {
+		return ProtocolComparison.parameters();
+	}
+
+	private HostDescription endpoint;
+	private volatile long deadline;
+
+	@Before
+	public void setup() {
+		endpoint = fixtures.leaseCluster(1, 3, 2);
+	}
+
+	@After
+	public void teardown() {
+		fixtures.release();
+	}
+
+	private static List<Integer> integers(final String property, final String defaults) {
+		return Arrays.stream(System.getProperty(property, defaults).split(",")).map(String::trim)
+				.map(Integer::valueOf).collect(Collectors.toList());
+	}
+
+	@Test
+	public void saturation() throws InterruptedException {
+		for (final int maxConnections : MAX_CONNECTIONS) {
+			arango = instrument(new ArangoDB.Builder().host(endpoint.getHost(), endpoint.getPort())
+					.useProtocol(protocol).maxConnections(maxConnections).build());
+			try {
+				// open the connections before measuring
+				run(maxConnections);
+				Cell previous = null;
+				boolean flagged = false;
+				for (final int threads : THREADS) {
+					final Cell cell = run(threads);
+					final double scaling = previous != null ? cell.throughput() / previous.throughput() : 1.0;
+					final boolean plateau = previous != null && scaling < SCALING;
+					if (plateau && !flagged) {
+						LOGGER.info("{} maxConnections {}: throughput stops scaling at {} threads ({} requests/s)",
+							protocol, maxConnections, threads, String.format("%.0f", cell.throughput()));
+						flagged = true;
+					}
+					Reports.append("pool-saturation.csv",
+						"protocol,maxConnections,threads,requests,errors,throughputPerSecond,latencyP50Ms,latencyP99Ms,serverMeanMs,residualMeanMs,scaling,plateau",
+						String.format("%s,%d,%d,%d,%d,%.0f,%.2f,%.2f,%.2f,%.2f,%.2f,%s", protocol, maxConnections,
+							threads, cell.latency.getTotalCount(), cell.errors.sum(), cell.throughput(),
+							cell.latency.getValueAtPercentile(50) / 1000.0,
+							cell.latency.getValueAtPercentile(99) / 1000.0, cell.serverMillis(), cell.residualMillis(),
+							scaling, plateau));
+					assertThat(cell.errors.sum(), is(0L));
+					assertThat(cell.latency.getTotalCount(), is(greaterThan(0L)));
+					verify(maxConnections, threads, cell);
+					previous = cell;
+				}
+			} finally {
+				arango.shutdown();
+			}
+		}
+	}
+
+	/**
+	 * Checks a measured configuration on top of the requests being answered without errors.
+	 */
+	private void verify(final int maxConnections, final int threads, final Cell cell) {
+		// an HTTP connection carries one request at a time, so surplus callers queue for a connection
+		if (protocol != Protocol.VST && threads >= 4 * maxConnections && cell.serverTimed()) {
+			assertThat(cell.residualMillis(), is(greaterThanOrEqualTo(cell.serverMillis())));
+		}
+	}
+
+	/**
+	 * Sends requests from {@code threads} threads for {@link #DURATION} ms.
+	 */
+	private Cell run(final int threads) throws InterruptedException {
+		final Cell cell = new Cell();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> callers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			final Thread caller = new Thread(() -> {
+				final Histogram latency = new Histogram(3);
+				final Histogram server = new Histogram(3);
+				final Histogram residual = new Histogram(3);
+				try {
+					start.await();
+				} catch (final InterruptedException e) {
+					return;
+				}
+				while (System.nanoTime() < deadline) {
+					final long begin = System.nanoTime();
+					try {
+						final Response response = arango.execute(new Request("_system", RequestType.POST,
+								"/_api/cursor").setBody(new VPackBuilder().add(ValueType.OBJECT).add("query", QUERY)
+										.close().slice()));
+						final long micros = MICROSECONDS.convert(System.nanoTime() - begin, NANOSECONDS);
+						latency.recordValue(micros);
+						final String serverTime = response.getMeta().get(SimulatedServer.HEADER_SERVER_TIME);
+						if (serverTime != null) {
+							final long serverMicros = Long.parseLong(serverTime);
+							server.recordValue(serverMicros);
+							residual.recordValue(Math.max(0L, micros - serverMicros));
+						}
+					} catch (final RuntimeException e) {
+						cell.errors.increment();
+					}
+				}
+				cell.add(latency, server, residual);
+			}, "saturation-" + i);
+			caller.setDaemon(true);
+			callers.add(caller);
+			caller.start();
+		}
+		final long begin = System.nanoTime();
+		deadline = begin + MILLISECONDS.toNanos(DURATION);
+		start.countDown();
+		for (final Thread caller : callers) {
+			caller.join();
+		}
+		cell.elapsed = System.nanoTime() - begin;
+		return cell;
+	}
+
+	private static class Cell {
+
+		private final Histogram latency = new Histogram(3);
+		private final Histogram server = new Histogram(3);
+		private final Histogram residual = new Histogram(3);
+		private final LongAdder errors = new LongAdder();
+		private long elapsed;
+
+		synchronized void add(final Histogram latency, final Histogram server, final Histogram residual) {
+			this.latency.add(latency);
+			this.server.add(server);
+			this.residual.add(residual);
+		}
+
+		double throughput() {
+			return latency.getTotalCount() / (elapsed / 1e9);
+		}
+
+		/**
+		 * @return whether the server reported the time it spent on the requests
+		 */
+		boolean serverTimed() {
+			return server.getTotalCount() > 0;
+		}
+
+		/**
+		 * @return mean time in milliseconds the server spent on a request, -1 if it did not report it
+		 */
+		double serverMillis() {
+			return serverTimed() ? server.getMean() / 1000.0 : -1;
+		}
+
+		/**
+		 * @return mean residual in milliseconds of the client latency minus the server time: waiting for a
+		 *         connection, serialization and network, -1 if the server did not report its time
+		 */
+		double residualMillis() {
+			return serverTimed() ? residual.getMean() / 1000.0 : -1;
+		}
+
+	}
+
+}
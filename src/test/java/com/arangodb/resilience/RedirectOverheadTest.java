@@ -0,0 +1,336 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience;
+
+import static com.arangodb.resilience.util.EndpointUtils.host;
+import static com.arangodb.resilience.util.EndpointUtils.port;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.lessThanOrEqualTo;
+import static org.junit.Assert.assertThat;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.Histogram;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.resilience.embedded.SimulatedServer;
+import com.arangodb.resilience.util.Convergence;
+import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Reports;
+import com.arangodb.velocypack.VPackBuilder;
+import com.arangodb.velocypack.ValueType;
+import com.arangodb.velocystream.Request;
+import com.arangodb.velocystream.RequestType;
+
+/**
+ * Measures what a client with a stale host list pays in an active failover setup. Leader-only reads are sent through
+ * a client configured with the leader and through clients that know the follower: first in their host list, alone
+ * like in {@link FailoverFollowerTest} or in a round robin list. Extra round trips ({@code X-Arango-Endpoint}
+ * redirects and failover hops per request), latency and throughput relative to the leader-configured client are
+ * appended to {@code redirect-overhead.csv}. After the leader is killed the follower becomes the leader, the time
+ * until the follower-configured clients get their reads through without a redirect is appended as well. Runs once
+ * per protocol, see {@link ProtocolComparison#protocols()}.
+ */
+@RunWith(Parameterized.class)
+public class RedirectOverheadTest extends BaseTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(RedirectOverheadTest.class);
+
+	private static final List<Integer> THREADS = Arrays
+			.stream(System.getProperty("resilience.redirect.threads", "1,8").split(",")).map(String::trim)
+			.map(Integer::valueOf).collect(Collectors.toList());
+	private static final long DURATION = Long.getLong("resilience.redirect.millis", 1000L);
+	private static final long RECOVERY_TIMEOUT = Long.getLong("resilience.redirect.recoveryTimeout", 10000L);
+	// the driver waits for a VST response without limit by default, a lost response would stall the benchmark
+	private static final int REQUEST_TIMEOUT = 2000;
+	private static final long PROBE_INTERVAL = 5L;
+	// a read only the leader answers, followers redirect it
+	private static final String QUERY = "FOR i IN 1..1 RETURN i";
+
+	@Parameter
+	public Protocol protocol;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> protocols() {
+		return ProtocolComparison.parameters();
+	}
+
+	private Instance leader;
+	private Instance follower;
+	private final List<ArangoDB> drivers = new ArrayList<>();
+	private volatile long deadline;
+
+	/**
+	 * The host lists compared, the first one is the baseline.
+	 */
+	private enum Client {
+		LEADER, FOLLOWER_FIRST, FOLLOWER_ONLY, ROUND_ROBIN
+	}
+
+	@Before
+	public void setup() throws InterruptedException {
+		fixtures.leaseActiveFailover(2);
+		im.waitForReplicationLeader();
+		leader = im.getReplicationLeader();
+		follower = im.singleServers().stream().filter(i -> !i.getName().equals(leader.getName())).findFirst().get();
+		// the leader redirects like a follower until the agency announced it
+		final ArangoDB direct = build(Client.LEADER);
+		assertThat(new Convergence().await(() -> direct.execute(read()),
+			r -> !r.getMeta().containsKey(SimulatedServer.HEADER_ENDPOINT)).isConverged(), is(true));
+	}
+
+	@After
+	public void teardown() {
+		drivers.forEach(ArangoDB::shutdown);
+		fixtures.release();
+	}
+
+	private ArangoDB build(final Client client) {
+		final ArangoDB.Builder builder = new ArangoDB.Builder().useProtocol(protocol).timeout(REQUEST_TIMEOUT);
+		switch (client) {
+		case LEADER:
+			builder.host(host(leader.getEndpoint()), port(leader.getEndpoint()));
+			break;
+		case FOLLOWER_ONLY:
+			builder.host(host(follower.getEndpoint()), port(follower.getEndpoint()));
+			break;
+		case ROUND_ROBIN:
+		case FOLLOWER_FIRST:
+			// same host list, ROUND_ROBIN only changes the strategy
+			if (client == Client.ROUND_ROBIN) {
+				builder.loadBalancingStrategy(LoadBalancingStrategy.ROUND_ROBIN);
+			}
+			builder.host(host(follower.getEndpoint()), port(follower.getEndpoint()))
+					.host(host(leader.getEndpoint()), port(leader.getEndpoint()));
+			break;
+		default:
+			throw new IllegalArgumentException(client.name());
+		}
+		final ArangoDB driver = instrument(builder.build());
+		drivers.add(driver);
+		return driver;
+	}
+
+	private static Request read() {
+		return new Request("_system", RequestType.POST, "/_api/cursor")
+				.setBody(new VPackBuilder().add(ValueType.OBJECT).add("query", QUERY).close().slice());
+	}
+
+	@Test
+	public void redirectOverhead() throws InterruptedException {
+		// warms up client and servers, otherwise the first baseline is measured with a cold JIT
+		run(build(Client.LEADER), THREADS.get(THREADS.size() - 1));
+		for (final int threads : THREADS) {
+			final Map<Client, Run> runs = new EnumMap<>(Client.class);
+			for (final Client client : Client.values()) {
+				// a fresh driver per run, a host handler broken by an earlier run must not distort the next one
+				final Run run = run(build(client), threads);
+				runs.put(client, run);
+				report("steady", client, threads, run, runs.get(Client.LEADER), -1L);
+			}
+			assertThat(runs.get(Client.LEADER).errors(), is(0L));
+			assertThat(runs.get(Client.LEADER).redirects, is(0L));
+			if (threads == 1) {
+				// a single redirect moves the client to the leader for good
+				final Run followerFirst = runs.get(Client.FOLLOWER_FIRST);
+				assertThat(followerFirst.errors(), is(0L));
+				assertThat(followerFirst.redirects, is(lessThanOrEqualTo(1L)));
+			}
+		}
+
+		final List<Client> stale = Arrays.asList(Client.FOLLOWER_FIRST, Client.FOLLOWER_ONLY);
+		final Map<Client, ArangoDB> clients = new EnumMap<>(Client.class);
+		for (final Client client : stale) {
+			clients.put(client, build(client));
+			try {
+				clients.get(client).execute(read());
+			} catch (final RuntimeException e) {
+				// a follower-only client does not get leader-only reads through before the failover
+			}
+		}
+		final long killedAt = System.nanoTime();
+		im.kill(leader);
+		final Map<Client, Long> recoveries = awaitRecovery(clients, killedAt);
+		for (final Client client : stale) {
+			report("afterFailover", client, 1, run(clients.get(client), 1), null, recoveries.get(client));
+		}
+	}
+
+	/**
+	 * Sends one read after the other through every client until each got a read through without a redirect or
+	 * {@link #RECOVERY_TIMEOUT} passed. Probing from a single thread keeps the instrumented redirects attributable
+	 * to the client.
+	 *
+	 * @return milliseconds from {@code since} until the first read without a redirect, {@code -1} if none
+	 */
+	private Map<Client, Long> awaitRecovery(final Map<Client, ArangoDB> clients, final long since)
+			throws InterruptedException {
+		final Map<Client, Long> recoveries = new EnumMap<>(Client.class);
+		final long deadline = since + MILLISECONDS.toNanos(RECOVERY_TIMEOUT);
+		while (recoveries.size() < clients.size() && System.nanoTime() < deadline) {
+			for (final Entry<Client, ArangoDB> client : clients.entrySet()) {
+				if (recoveries.containsKey(client.getKey())) {
+					continue;
+				}
+				final long redirects = instrumentation.redirects();
+				try {
+					client.getValue().execute(read());
+					if (instrumentation.redirects() == redirects) {
+						recoveries.put(client.getKey(), NANOSECONDS.toMillis(System.nanoTime() - since));
+					}
+				} catch (final RuntimeException e) {
+					// not recovered yet
+				}
+			}
+			MILLISECONDS.sleep(PROBE_INTERVAL);
+		}
+		clients.keySet().forEach(client -> recoveries.putIfAbsent(client, -1L));
+		return recoveries;
+	}
+
+	/**
+	 * Sends reads from the given number of threads for {@link #DURATION} ms.
+	 */
+	private Run run(final ArangoDB driver, final int threads) throws InterruptedException {
+		final Run run = new Run();
+		final long requestsBefore = instrumentation.requests();
+		final long redirectsBefore = instrumentation.redirects();
+		final long hopsBefore = instrumentation.failoverHops();
+		final CountDownLatch start = new CountDownLatch(1);
+		final List<Thread> callers = new ArrayList<>();
+		for (int i = 0; i < threads; i++) {
+			final Thread caller = new Thread(() -> {
+				final Histogram latency = new Histogram(3);
+				try {
+					start.await();
+				} catch (final InterruptedException e) {
+					return;
+				}
+				while (System.nanoTime() < deadline) {
+					final long begin = System.nanoTime();
+					try {
+						driver.execute(read());
+						latency.recordValue(MICROSECONDS.convert(System.nanoTime() - begin, NANOSECONDS));
+					} catch (final RuntimeException e) {
+						run.errors.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+					}
+				}
+				run.add(latency);
+			}, "redirect-" + i);
+			caller.setDaemon(true);
+			callers.add(caller);
+		}
+		final long begin = System.nanoTime();
+		deadline = begin + MILLISECONDS.toNanos(DURATION);
+		callers.forEach(Thread::start);
+		start.countDown();
+		for (final Thread caller : callers) {
+			caller.join();
+		}
+		run.elapsed = System.nanoTime() - begin;
+		run.requests = instrumentation.requests() - requestsBefore;
+		run.redirects = instrumentation.redirects() - redirectsBefore;
+		run.hops = instrumentation.failoverHops() - hopsBefore;
+		return run;
+	}
+
+	/**
+	 * @param baseline
+	 *            run of the leader-configured client, {@code null} if there is none to compare with
+	 */
+	private void report(final String phase, final Client client, final int threads, final Run run,
+		final Run baseline, final long recoveryMillis) {
+		final String errors = run.errors.entrySet().stream().map(e -> e.getKey() + " x" + e.getValue().sum())
+				.collect(Collectors.joining(" ", "", run.errors.isEmpty() ? "none" : ""));
+		LOGGER.info("{} {} {} {} threads: {} reads/s, p50 {} ms, {} redirects and {} hops per request, errors: {}",
+			protocol, phase, client, threads, String.format("%.0f", run.throughput()),
+			String.format("%.2f", run.latency.getValueAtPercentile(50) / 1000.0),
+			String.format("%.2f", run.perRequest(run.redirects)), String.format("%.2f", run.perRequest(run.hops)),
+			errors);
+		Reports.append("redirect-overhead.csv",
+			"protocol,phase,client,threads,reads,errors,readsPerSecond,throughputVsLeader,latencyP50Ms,latencyP99Ms,latencyP50VsLeader,redirectsPerRequest,hopsPerRequest,recoveryMillis",
+			String.format("%s,%s,%s,%d,%d,%s,%.0f,%.3f,%.2f,%.2f,%.2f,%.3f,%.3f,%d", protocol, phase, client,
+				threads, run.latency.getTotalCount(), errors, run.throughput(),
+				baseline != null ? run.throughput() / baseline.throughput() : Double.NaN,
+				run.latency.getValueAtPercentile(50) / 1000.0, run.latency.getValueAtPercentile(99) / 1000.0,
+				baseline != null ? run.latency.getValueAtPercentile(50) / (double) baseline.latency.getValueAtPercentile(50)
+						: Double.NaN,
+				run.perRequest(run.redirects), run.perRequest(run.hops), recoveryMillis));
+	}
+
+	private static class Run {
+
+		private final Histogram latency = new Histogram(3);
+		private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+		private long elapsed;
+		private long requests;
+		private long redirects;
+		private long hops;
+
+		synchronized void add(final Histogram latency) {
+			this.latency.add(latency);
+		}
+
+		long errors() {
+			return errors.values().stream().mapToLong(LongAdder::sum).sum();
+		}
+
+		/**
+		 * @return successful reads per second
+		 */
+		double throughput() {
+			return latency.getTotalCount() / (elapsed / 1e9);
+		}
+
+		double perRequest(final long count) {
+			return requests > 0 ? count / (double) requests : 0.0;
+		}
+
+	}
+
+}
@@ -0,0 +1,244 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience;
+
+import static com.arangodb.resilience.util.EndpointUtils.host;
+import static com.arangodb.resilience.util.EndpointUtils.port;
+import static org.hamcrest.Matchers.greaterThan;
+import static org.hamcrest.Matchers.greaterThanOrEqualTo;
+import static org.hamcrest.Matchers.is;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assume.assumeFalse;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Collectors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+import org.junit.runners.Parameterized.Parameter;
+import org.junit.runners.Parameterized.Parameters;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.Protocol;
+import com.arangodb.entity.LoadBalancingStrategy;
+import com.arangodb.internal.net.HostDescription;
+import com.arangodb.resilience.util.HostListRefresher;
+import com.arangodb.resilience.util.Instance;
+import com.arangodb.resilience.util.ProtocolComparison;
+import com.arangodb.resilience.util.Reports;
+import com.arangodb.velocystream.Request;
+import com.arangodb.velocystream.RequestType;
+
+/**
+ * Adds coordinators to a running cluster while traffic flows through a driver with {@code acquireHostList(true)} and
+ * measures the time and the number of requests until every new coordinator answered requests. The driver only
+ * acquires the host list again after its cache expired, so the same is measured once more after forcing that refresh.
+ * Both phases of every protocol, see {@link ProtocolComparison#protocols()}, are appended to {@code scale-out.csv}.
+ * The traffic asks {@code /_admin/status}, whose server id tells
+ * which coordinator answered, real or simulated.
+ */
+@RunWith(Parameterized.class)
+public class ScaleOutTest extends BaseTest {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(ScaleOutTest.class);
+
+	private static final int NUM_COORDINATORS = 3;
+	private static final int ADDED_COORDINATORS = Integer.getInteger("resilience.scaleOut.added", 3);
+	private static final long DETECTION_TIMEOUT = Long.getLong("resilience.scaleOut.timeout", 2000L);
+	private static final int THREADS = 8;
+	private static final long WARMUP = 500L;
+	// window after the detection in which the share of the new coordinators is measured
+	private static final long SHARE_WINDOW = 500L;
+	private static final long POLL_INTERVAL = 5L;
+
+	@Parameter
+	public Protocol protocol;
+
+	@Parameters(name = "{0}")
+	public static Collection<Object[]> protocols() {
+		return ProtocolComparison.parameters();
+	}
+
+	private final List<Thread> callers = new ArrayList<>();
+	private final LongAdder requests = new LongAdder();
+	private final LongAdder errors = new LongAdder();
+	private final Map<String, LongAdder> served = new ConcurrentHashMap<>();
+	private volatile boolean running;
+
+	@Before
+	public void setup() {
+		final HostDescription endpoint = fixtures.leaseCluster(1, NUM_COORDINATORS, 1);
+		arango = instrument(new ArangoDB.Builder().useProtocol(protocol).host(endpoint.getHost(), endpoint.getPort())
+				.acquireHostList(true).loadBalancingStrategy(LoadBalancingStrategy.ROUND_ROBIN).build());
+	}
+
+	@After
+	public void teardown() throws InterruptedException {
+		running = false;
+		for (final Thread caller : callers) {
+			caller.join();
+		}
+		arango.shutdown();
+		// the added coordinators change the shape of the topology
+		fixtures.discard();
+	}
+
+	/**
+	 * Known driver bug: the driver keeps its host list for an hour, added coordinators stay unused until then unless
+	 * the refresh is forced. Drop this once the driver is fixed.
+	 *
+	 * @return whether the driver does not pick up added coordinators on its own
+	 */
+	private boolean hostListCacheBroken() {
+		return true;
+	}
+
+	@Test
+	public void addCoordinators() throws InterruptedException {
+		start();
+		MILLISECONDS.sleep(WARMUP);
+		assertThat(served.size(), is(NUM_COORDINATORS));
+
+		final List<String> added = im.addCoordinators(ADDED_COORDINATORS).stream().map(ScaleOutTest::serverId)
+				.collect(Collectors.toList());
+		final Detection cached = detect("cached", added);
+
+		final long refreshedAt = System.nanoTime();
+		new HostListRefresher(arango).refresh();
+		final Detection refreshed = detect("refreshed", added, refreshedAt);
+		assertThat(refreshed.allMillis, is(greaterThanOrEqualTo(0L)));
+		assertThat(refreshed.newShare, is(greaterThan(0.0)));
+
+		// both phases are reported either way, a known driver bug only skips the assertion
+		assumeFalse("the driver caches its host list for an hour", hostListCacheBroken());
+		// assert that the driver uses the added coordinators without a forced refresh
+		assertThat(cached.allMillis, is(greaterThanOrEqualTo(0L)));
+	}
+
+	private void start() {
+		running = true;
+		for (int i = 0; i < THREADS; i++) {
+			final Thread caller = new Thread(() -> {
+				while (running) {
+					try {
+						final String server = arango
+								.execute(new Request("_system", RequestType.GET, "/_admin/status")).getBody()
+								.get("serverInfo").get("serverId").getAsString();
+						served.computeIfAbsent(server, s -> new LongAdder()).increment();
+						requests.increment();
+					} catch (final RuntimeException e) {
+						errors.increment();
+					}
+				}
+			}, "scale-out-" + i);
+			caller.setDaemon(true);
+			callers.add(caller);
+			caller.start();
+		}
+	}
+
+	private static String serverId(final Instance coordinator) {
+		final ArangoDB direct = new ArangoDB.Builder()
+				.host(host(coordinator.getEndpoint()), port(coordinator.getEndpoint())).build();
+		try {
+			return direct.execute(new Request("_system", RequestType.GET, "/_admin/status")).getBody()
+					.get("serverInfo").get("serverId").getAsString();
+		} finally {
+			direct.shutdown();
+		}
+	}
+
+	private Detection detect(final String phase, final Collection<String> added) throws InterruptedException {
+		return detect(phase, added, System.nanoTime());
+	}
+
+	/**
+	 * Waits until every added coordinator answered a request or {@link #DETECTION_TIMEOUT} passed.
+	 */
+	private Detection detect(final String phase, final Collection<String> added, final long since)
+			throws InterruptedException {
+		final Detection detection = new Detection();
+		final long requestsBefore = requests.sum();
+		final long errorsBefore = errors.sum();
+		final long deadline = since + MILLISECONDS.toNanos(DETECTION_TIMEOUT);
+		while (System.nanoTime() < deadline) {
+			final long seen = added.stream().filter(served::containsKey).count();
+			if (seen > 0 && detection.firstMillis < 0) {
+				detection.firstMillis = NANOSECONDS.toMillis(System.nanoTime() - since);
+			}
+			if (seen == added.size()) {
+				detection.allMillis = NANOSECONDS.toMillis(System.nanoTime() - since);
+				detection.requests = requests.sum() - requestsBefore;
+				break;
+			}
+			MILLISECONDS.sleep(POLL_INTERVAL);
+		}
+		if (detection.allMillis < 0) {
+			detection.requests = requests.sum() - requestsBefore;
+		}
+		// share of the added coordinators once the driver knows them
+		final Map<String, Long> before = snapshot();
+		MILLISECONDS.sleep(SHARE_WINDOW);
+		final Map<String, Long> after = snapshot();
+		final long total = after.entrySet().stream().mapToLong(e -> e.getValue() - before.getOrDefault(e.getKey(), 0L))
+				.sum();
+		final long toAdded = added.stream()
+				.mapToLong(id -> after.getOrDefault(id, 0L) - before.getOrDefault(id, 0L)).sum();
+		detection.newShare = total > 0 ? toAdded / (double) total : 0.0;
+		final long failed = errors.sum() - errorsBefore;
+		LOGGER.info("{} {}: first added coordinator after {} ms, all after {} ms and {} requests, share {}, {} errors",
+			protocol, phase, detection.firstMillis, detection.allMillis, detection.requests,
+			String.format("%.2f", detection.newShare), failed);
+		Reports.append("scale-out.csv",
+			"protocol,phase,coordinators,added,firstAddedMillis,allAddedMillis,requestsUntilAllAdded,addedShare,expectedShare,errors",
+			String.format("%s,%s,%d,%d,%d,%d,%d,%.3f,%.3f,%d", protocol, phase, NUM_COORDINATORS, added.size(),
+				detection.firstMillis, detection.allMillis, detection.requests, detection.newShare,
+				added.size() / (double) (NUM_COORDINATORS + added.size()), failed));
+		return detection;
+	}
+
+	private Map<String, Long> snapshot() {
+		return served.entrySet().stream().collect(Collectors.toMap(Map.Entry::getKey, e -> e.getValue().sum()));
+	}
+
+	private static class Detection {
+
+		private long firstMillis = -1;
+		private long allMillis = -1;
+		private long requests;
+		private double newShare;
+
+	}
+
+}
@@ -0,0 +1,105 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.embedded;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.arangodb.velocypack.VPackBuilder;
+import com.arangodb.velocypack.VPackSlice;
+import com.arangodb.velocypack.ValueType;
+
+/**
+ * Documents of a simulated deployment. All servers of a deployment share one store, which stands in for synchronous
+ * replication between leader and followers or coordinators and DB-Servers.
+ */
+public class DocumentStore {
+
+	private final Map<String, Map<String, VPackSlice>> collections;
+	private final AtomicLong ids;
+
+	public DocumentStore() {
+		super();
+		collections = new ConcurrentHashMap<>();
+		ids = new AtomicLong();
+	}
+
+	/**
+	 * @return {@code false} if the collection already exists
+	 */
+	public boolean createCollection(final String name) {
+		return collections.putIfAbsent(name, new ConcurrentHashMap<>()) == null;
+	}
+
+	public boolean hasCollection(final String name) {
+		return collections.containsKey(name);
+	}
+
+	public int count(final String collection) {
+		final Map<String, VPackSlice> documents = collections.get(collection);
+		return documents != null ? documents.size() : 0;
+	}
+
+	/**
+	 * Stores the document under its {@code _key} or a generated one, replacing an existing document with the same key.
+	 *
+	 * @return the stored document including {@code _key}, {@code _id} and {@code _rev} or {@code null} if the
+	 *         collection does not exist
+	 */
+	public VPackSlice put(final String collection, final String key, final VPackSlice document) {
+		final Map<String, VPackSlice> documents = collections.get(collection);
+		if (documents == null) {
+			return null;
+		}
+		final VPackSlice givenKey = document.get("_key");
+		final String documentKey = key != null ? key
+				: givenKey.isString() ? givenKey.getAsString() : String.valueOf(ids.incrementAndGet());
+		final VPackBuilder builder = new VPackBuilder().add(ValueType.OBJECT).add("_key", documentKey)
+				.add("_id", collection + "/" + documentKey).add("_rev", Long.toString(ids.incrementAndGet(), 36));
+		for (final Iterator<Entry<String, VPackSlice>> it = document.objectIterator(); it.hasNext();) {
+			final Entry<String, VPackSlice> attribute = it.next();
+			if (!attribute.getKey().startsWith("_")) {
+				builder.add(attribute.getKey(), attribute.getValue());
+			}
+		}
+		final VPackSlice stored = builder.close().slice();
+		documents.put(documentKey, stored);
+		return stored;
+	}
+
+	public VPackSlice get(final String collection, final String key) {
+		final Map<String, VPackSlice> documents = collections.get(collection);
+		return documents != null ? documents.get(key) : null;
+	}
+
+	public VPackSlice remove(final String collection, final String key) {
+		final Map<String, VPackSlice> documents = collections.get(collection);
+		return documents != null ? documents.remove(key) : null;
+	}
+
+	public void clear() {
+		collections.clear();
+	}
+
+}
@@ -0,0 +1,250 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.embedded;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.arangodb.velocypack.VPackBuilder;
+import com.arangodb.velocypack.VPackParser;
+import com.arangodb.velocypack.VPackSlice;
+import com.arangodb.velocypack.ValueType;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+/**
+ * In-JVM replacement for the arangodb-instance-manager. Serves the REST API {@code InstanceManager} talks to and backs
+ * it with a {@link SimulatedDeployment} instead of real arangod processes.
+ */
+public class EmbeddedInstanceManager {
+
+	private static final VPackParser PARSER = new VPackParser.Builder().build();
+	private static final long WAIT_TIMEOUT = 60 * 1000L;
+	private static final long WAIT_INTERVAL = 10L;
+
+	private final SimulatedDeployment deployment;
+	private final HttpServer server;
+	private final ExecutorService executor;
+
+	/**
+	 * Binds the instance manager to {@code firstPort} and the simulated servers to the rest of the range, so that
+	 * several instance managers on one machine never share a port.
+	 *
+	 * @param firstPort
+	 *            first port of the range or {@code 0} to use free ports
+	 * @param lastPort
+	 *            last port of the range, inclusive
+	 * @param serverThreads
+	 *            queries every simulated server runs at the same time or {@code 0} for no limit
+	 */
+	public EmbeddedInstanceManager(final String host, final long failoverDelay, final long settleDelay,
+		final int firstPort, final int lastPort, final int serverThreads) {
+		super();
+		deployment = new SimulatedDeployment(host, failoverDelay, settleDelay, firstPort > 0 ? firstPort + 1 : 0,
+				lastPort, serverThreads);
+		try {
+			server = HttpServer.create(new InetSocketAddress(host, firstPort), 0);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		executor = Executors.newCachedThreadPool(r -> {
+			final Thread thread = new Thread(r, "embedded-instance-manager");
+			thread.setDaemon(true);
+			return thread;
+		});
+		server.setExecutor(executor);
+		server.createContext("/", this::handle);
+		server.start();
+	}
+
+	public String getEndpoint() {
+		return server.getAddress().getHostString() + ":" + server.getAddress().getPort();
+	}
+
+	public SimulatedDeployment getDeployment() {
+		return deployment;
+	}
+
+	public void shutdown() {
+		server.stop(0);
+		executor.shutdownNow();
+		deployment.close();
+	}
+
+	private void handle(final HttpExchange exchange) throws IOException {
+		try {
+			final String method = exchange.getRequestMethod();
+			final String path = exchange.getRequestURI().getPath();
+			final Map<String, String> params = params(exchange.getRequestURI().getRawQuery());
+			final VPackSlice body = body(exchange.getRequestBody());
+			if ("DELETE".equals(method) && "/".equals(path)) {
+				deployment.cleanup();
+				respond(exchange, 200, null);
+			} else if ("POST".equals(method) && "/cluster".equals(path)) {
+				final SimulatedServer coordinator = deployment.startCluster(body.get("numAgents").getAsInt(),
+					body.get("numCoordinators").getAsInt(), body.get("numDbServeres").getAsInt());
+				respond(exchange, 200,
+					new VPackBuilder().add(ValueType.OBJECT).add("endpoint", coordinator.getEndpoint()).close().slice());
+			} else if ("POST".equals(method) && "/coordinator".equals(path)) {
+				final String num = params.get("num");
+				respond(exchange, 200, instances(deployment.addCoordinators(num != null ? Integer.valueOf(num) : 1)));
+			} else if ("POST".equals(method) && "/agency".equals(path)) {
+				respond(exchange, 200, instances(deployment.startAgency()));
+			} else if ("POST".equals(method) && "/single".equals(path)) {
+				final String num = params.get("num");
+				respond(exchange, 200, instances(deployment.startSingleServer(num != null ? Integer.valueOf(num) : 1)));
+			} else if ("HEAD".equals(method) && "/instance".equals(path)) {
+				for (final SimulatedServer instance : deployment.instances()) {
+					awaitRunning(instance);
+				}
+				respond(exchange, 200, null);
+			} else if ("GET".equals(method) && "/instance/coordinators".equals(path)) {
+				respond(exchange, 200, instances(deployment.instances(ServerRole.COORDINATOR)));
+			} else if ("GET".equals(method) && "/instance/single".equals(path)) {
+				respond(exchange, 200, instances(deployment.instances(ServerRole.SINGLE)));
+			} else if ("GET".equals(method) && "/instance/agents".equals(path)) {
+				respond(exchange, 200, instances(deployment.instances(ServerRole.AGENT)));
+			} else if ("GET".equals(method) && "/instance/dbservers".equals(path)) {
+				respond(exchange, 200, instances(deployment.instances(ServerRole.DBSERVER)));
+			} else if (path.startsWith("/instance/")) {
+				final SimulatedServer instance = deployment.instance(path.substring("/instance/".length()));
+				if (instance == null) {
+					respond(exchange, 404, error(404, "unknown instance"));
+				} else if ("GET".equals(method)) {
+					respond(exchange, 200, instance(instance));
+				} else if ("HEAD".equals(method)) {
+					respond(exchange, awaitRunning(instance) ? 200 : 504, null);
+				} else if ("DELETE".equals(method)) {
+					deployment.shutdown(instance, Boolean.valueOf(params.get("kill")));
+					respond(exchange, 200, null);
+				} else if ("POST".equals(method)) {
+					deployment.restart(instance);
+					respond(exchange, 200, null);
+				} else {
+					respond(exchange, 405, error(405, "method not allowed"));
+				}
+			} else if ("GET".equals(method) && "/agency/leader".equals(path)) {
+				final SimulatedServer leader = deployment.getAgencyLeader();
+				respond(exchange, leader != null ? 200 : 503,
+					leader != null ? instance(leader) : error(503, "no agency leader"));
+			} else if ("GET".equals(method) && "/replication/leader".equals(path)) {
+				final SimulatedServer leader = deployment.getReplicationLeader();
+				respond(exchange, leader != null ? 200 : 503,
+					leader != null ? instance(leader) : error(503, "no replication leader"));
+			} else if ("HEAD".equals(method) && "/replication/leader".equals(path)) {
+				respond(exchange, deployment.awaitReplicationLeader(params.get("ignore"), WAIT_TIMEOUT) ? 200 : 504,
+					null);
+			} else if ("GET".equals(method) && "/replication/leader/id".equals(path)) {
+				final SimulatedServer leader = deployment.getReplicationLeader();
+				respond(exchange, leader != null ? 200 : 503,
+					leader != null
+							? new VPackBuilder().add(ValueType.OBJECT).add("uuid", leader.getServerId()).close().slice()
+							: error(503, "no replication leader"));
+			} else {
+				respond(exchange, 404, error(404, "unknown path '" + path + "'"));
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			respond(exchange, 500, error(500, e.toString()));
+		} catch (final RuntimeException e) {
+			respond(exchange, 500, error(500, e.toString()));
+		}
+	}
+
+	private static boolean awaitRunning(final SimulatedServer instance) throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + WAIT_TIMEOUT;
+		while (!instance.isRunning()) {
+			if (System.currentTimeMillis() > deadline) {
+				return false;
+			}
+			Thread.sleep(WAIT_INTERVAL);
+		}
+		return true;
+	}
+
+	private static VPackSlice instances(final Collection<SimulatedServer> instances) {
+		final VPackBuilder builder = new VPackBuilder().add(ValueType.ARRAY);
+		instances.forEach(i -> builder.add(instance(i)));
+		return builder.close().slice();
+	}
+
+	private static VPackSlice instance(final SimulatedServer instance) {
+		return new VPackBuilder().add(ValueType.OBJECT).add("name", instance.getName())
+				.add("endpoint", instance.getEndpoint()).add("role", instance.getRole().getPrefix())
+				.add("status", instance.isRunning() ? "RUNNING" : "EXITED").close().slice();
+	}
+
+	private static VPackSlice error(final int code, final String errorMessage) {
+		return new VPackBuilder().add(ValueType.OBJECT).add("error", true).add("code", code).add("errorNum", code)
+				.add("errorMessage", errorMessage).close().slice();
+	}
+
+	private static Map<String, String> params(final String query) throws IOException {
+		final Map<String, String> params = new HashMap<>();
+		if (query != null) {
+			for (final String param : query.split("&")) {
+				final int eq = param.indexOf('=');
+				if (eq > 0) {
+					params.put(URLDecoder.decode(param.substring(0, eq), "UTF-8"),
+						URLDecoder.decode(param.substring(eq + 1), "UTF-8"));
+				}
+			}
+		}
+		return params;
+	}
+
+	private static VPackSlice body(final InputStream in) throws IOException {
+		final ByteArrayOutputStream content = new ByteArrayOutputStream();
+		final byte[] buffer = new byte[4096];
+		for (int read = in.read(buffer); read >= 0; read = in.read(buffer)) {
+			content.write(buffer, 0, read);
+		}
+		return content.size() > 0 ? PARSER.fromJson(new String(content.toByteArray(), StandardCharsets.UTF_8))
+				: null;
+	}
+
+	private static void respond(final HttpExchange exchange, final int code, final VPackSlice body)
+			throws IOException {
+		if (body == null || "HEAD".equals(exchange.getRequestMethod())) {
+			exchange.sendResponseHeaders(code, -1);
+		} else {
+			final byte[] content = PARSER.toJson(body, true).getBytes(StandardCharsets.UTF_8);
+			exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+			exchange.sendResponseHeaders(code, content.length);
+			try (OutputStream out = exchange.getResponseBody()) {
+				out.write(content);
+			}
+		}
+		exchange.close();
+	}
+
+}
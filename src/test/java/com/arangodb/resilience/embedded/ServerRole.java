@@ -18,22 +18,33 @@
  * Copyright holder is ArangoDB GmbH, Cologne, Germany
  */
 
-package com.arangodb.resilience;
+package com.arangodb.resilience.embedded;
 
-import com.arangodb.ArangoDB.Builder;
-import com.arangodb.Protocol;
-import com.arangodb.internal.net.HostDescription;
+public enum ServerRole {
 
-/**
- * @author Mark Vollmary
- *
- */
-public class FailoverFollowerHttpTest extends FailoverFollowerVstTest {
+	AGENT("agent", "AGENT"), COORDINATOR("coordinator", "COORDINATOR"), DBSERVER("dbserver", "PRIMARY"),
+	SINGLE("single", "SINGLE");
+
+	private final String prefix;
+	private final String serverRole;
+
+	private ServerRole(final String prefix, final String serverRole) {
+		this.prefix = prefix;
+		this.serverRole = serverRole;
+	}
+
+	/**
+	 * @return prefix of the instance names the instance manager hands out for this role
+	 */
+	public String getPrefix() {
+		return prefix;
+	}
 
-	@Override
-	protected void configure(final Builder builder, final HostDescription leader) {
-		super.configure(builder, leader);
-		builder.useProtocol(Protocol.HTTP_JSON);
+	/**
+	 * @return role as reported by {@code /_admin/status}
+	 */
+	public String getServerRole() {
+		return serverRole;
 	}
 
 }
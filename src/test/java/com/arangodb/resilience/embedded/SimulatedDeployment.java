@@ -0,0 +1,351 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.embedded;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.BindException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+/**
+ * In-memory model of the instances an arangodb-instance-manager would run: agents, coordinators, DB-Servers and single
+ * servers. Single servers started next to an agency form an active failover setup; the deployment elects a new leader
+ * when the current one goes down.
+ */
+public class SimulatedDeployment {
+
+	private static final int AGENCY_SIZE = 3;
+	// how long a restart waits for its port, see restart
+	private static final long REBIND_TIMEOUT = 2000L;
+	private static final long REBIND_INTERVAL = 10L;
+
+	private final String host;
+	private final long failoverDelay;
+	private final long settleDelay;
+	private final int firstPort;
+	private final int lastPort;
+	private final int serverThreads;
+	private final Map<String, SimulatedServer> instances;
+	private final ScheduledExecutorService scheduler;
+	private final DocumentStore documentStore;
+	private int counter;
+	private int nextPort;
+	private SimulatedServer leader;
+	private volatile SimulatedServer announcedLeader;
+
+	/**
+	 * @param host
+	 *            address the simulated servers bind to
+	 * @param failoverDelay
+	 *            time in milliseconds between the loss of the replication leader and the election of a new one
+	 * @param settleDelay
+	 *            time in milliseconds a newly elected leader keeps behaving like a follower
+	 * @param firstPort
+	 *            first port of the range the simulated servers bind to or {@code 0} to let every server pick a free
+	 *            port
+	 * @param lastPort
+	 *            last port of the range, inclusive
+	 * @param serverThreads
+	 *            queries every server runs at the same time, like the scheduler threads of arangod, or {@code 0} for
+	 *            no limit
+	 */
+	public SimulatedDeployment(final String host, final long failoverDelay, final long settleDelay,
+		final int firstPort, final int lastPort, final int serverThreads) {
+		super();
+		this.host = host;
+		this.failoverDelay = failoverDelay;
+		this.settleDelay = settleDelay;
+		this.firstPort = firstPort;
+		this.lastPort = lastPort;
+		this.serverThreads = serverThreads;
+		nextPort = firstPort;
+		instances = new LinkedHashMap<>();
+		documentStore = new DocumentStore();
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "simulated-deployment");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	public synchronized SimulatedServer startCluster(
+		final int numAgents,
+		final int numCoordinators,
+		final int numDbServers) {
+		start(ServerRole.AGENT, numAgents);
+		start(ServerRole.DBSERVER, numDbServers);
+		return start(ServerRole.COORDINATOR, numCoordinators).stream().findFirst().orElse(null);
+	}
+
+	/**
+	 * Adds coordinators to the running cluster. They show up in {@code /_api/cluster/endpoints} right away.
+	 */
+	public synchronized List<SimulatedServer> addCoordinators(final int num) {
+		if (instances(ServerRole.COORDINATOR).isEmpty()) {
+			throw new IllegalStateException("no cluster running");
+		}
+		return start(ServerRole.COORDINATOR, num);
+	}
+
+	public synchronized List<SimulatedServer> startAgency() {
+		final List<SimulatedServer> agents = start(ServerRole.AGENT, AGENCY_SIZE);
+		// single servers started before the agency get their leader now
+		electInitialLeader();
+		return agents;
+	}
+
+	public synchronized List<SimulatedServer> startSingleServer(final int num) {
+		final List<SimulatedServer> servers = start(ServerRole.SINGLE, num);
+		electInitialLeader();
+		return servers;
+	}
+
+	/**
+	 * Elects and announces the first leader of an active failover setup right away, once the agency and a single
+	 * server run, whichever of them started first.
+	 */
+	private void electInitialLeader() {
+		if (leader == null && isActiveFailover()) {
+			elect();
+			announcedLeader = leader;
+		}
+	}
+
+	private List<SimulatedServer> start(final ServerRole role, final int num) {
+		final List<SimulatedServer> servers = new ArrayList<>();
+		for (int i = 0; i < num; i++) {
+			final SimulatedServer server = bind(role.getPrefix() + "-" + ++counter, role);
+			instances.put(server.getName(), server);
+			servers.add(server);
+		}
+		return servers;
+	}
+
+	/**
+	 * Starts a server on the next free port of the range, skipping ports taken by other processes.
+	 */
+	private SimulatedServer bind(final String name, final ServerRole role) {
+		while (true) {
+			if (nextPort > lastPort) {
+				throw new IllegalStateException("port range exhausted, last port " + lastPort);
+			}
+			final SimulatedServer server = new SimulatedServer(this, name, role, host, nextPort);
+			if (nextPort > 0) {
+				nextPort++;
+			}
+			try {
+				server.start();
+				return server;
+			} catch (final BindException e) {
+				server.destroy();
+			} catch (final IOException e) {
+				server.destroy();
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	public synchronized Collection<SimulatedServer> instances() {
+		return new ArrayList<>(instances.values());
+	}
+
+	public synchronized List<SimulatedServer> instances(final ServerRole role) {
+		return instances.values().stream().filter(i -> i.getRole() == role).collect(Collectors.toList());
+	}
+
+	public synchronized SimulatedServer instance(final String name) {
+		return instances.get(name);
+	}
+
+	public void shutdown(final SimulatedServer server, final boolean kill) {
+		// stop outside the lock, so that graceful shutdowns of several servers overlap
+		server.stop(kill);
+		synchronized (this) {
+			if (server == leader) {
+				leader = null;
+				scheduleElection();
+			}
+		}
+	}
+
+	/**
+	 * Starts a stopped server on its old port again. While a server with an ephemeral port is down, an outgoing
+	 * connection of a client can take that port for a moment, so a failed bind is retried for up to
+	 * {@value #REBIND_TIMEOUT} ms.
+	 */
+	public synchronized void restart(final SimulatedServer server) {
+		final long deadline = System.currentTimeMillis() + REBIND_TIMEOUT;
+		while (true) {
+			try {
+				server.start();
+				break;
+			} catch (final BindException e) {
+				if (System.currentTimeMillis() >= deadline) {
+					throw new UncheckedIOException(e);
+				}
+				try {
+					Thread.sleep(REBIND_INTERVAL);
+				} catch (final InterruptedException ie) {
+					Thread.currentThread().interrupt();
+					throw new UncheckedIOException(e);
+				}
+			} catch (final IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+		if (leader == null && isActiveFailover()) {
+			scheduleElection();
+		}
+	}
+
+	/**
+	 * @return queries every server runs at the same time or {@code 0} for no limit
+	 */
+	public int getServerThreads() {
+		return serverThreads;
+	}
+
+	public DocumentStore getDocumentStore() {
+		return documentStore;
+	}
+
+	/**
+	 * @return the elected replication leader or {@code null} while an election is pending
+	 */
+	public synchronized SimulatedServer getReplicationLeader() {
+		return leader;
+	}
+
+	/**
+	 * @return the agent leading the agency, the first running agent, or {@code null} without a running agent
+	 */
+	public synchronized SimulatedServer getAgencyLeader() {
+		return instances(ServerRole.AGENT).stream().filter(SimulatedServer::isRunning).findFirst().orElse(null);
+	}
+
+	/**
+	 * Blocks until a replication leader is elected whose server id differs from {@code ignore}.
+	 *
+	 * @return {@code false} if no such leader was elected within the timeout
+	 */
+	public synchronized boolean awaitReplicationLeader(final String ignore, final long timeout)
+			throws InterruptedException {
+		final long deadline = System.currentTimeMillis() + timeout;
+		while (leader == null || leader.getServerId().equals(ignore)) {
+			final long remaining = deadline - System.currentTimeMillis();
+			if (remaining <= 0) {
+				return false;
+			}
+			wait(remaining);
+		}
+		return true;
+	}
+
+	/**
+	 * @return the leader the followers redirect to. Lags behind {@link #getReplicationLeader()} by the settle delay.
+	 */
+	SimulatedServer getAnnouncedLeader() {
+		return announcedLeader;
+	}
+
+	synchronized boolean isActiveFailover() {
+		return !instances(ServerRole.AGENT).isEmpty();
+	}
+
+	/**
+	 * @return the endpoints {@code /_api/cluster/endpoints} reports on the given server or {@code null} if the server
+	 *         is not part of a cluster or an active failover setup
+	 */
+	synchronized Collection<SimulatedServer> endpoints(final SimulatedServer server) {
+		if (server.getRole() == ServerRole.COORDINATOR) {
+			return instances(ServerRole.COORDINATOR).stream().filter(SimulatedServer::isRunning)
+					.collect(Collectors.toList());
+		}
+		if (server.getRole() == ServerRole.SINGLE && isActiveFailover()) {
+			final List<SimulatedServer> endpoints = new ArrayList<>();
+			final SimulatedServer announced = announcedLeader;
+			if (announced != null) {
+				endpoints.add(announced);
+			}
+			instances(ServerRole.SINGLE).stream().filter(i -> i != announced && i.isRunning())
+					.forEach(endpoints::add);
+			return endpoints;
+		}
+		return null;
+	}
+
+	private boolean hasAgencyQuorum() {
+		final List<SimulatedServer> agents = instances(ServerRole.AGENT);
+		return agents.stream().filter(SimulatedServer::isRunning).count() > agents.size() / 2;
+	}
+
+	private void scheduleElection() {
+		scheduler.schedule(() -> {
+			synchronized (SimulatedDeployment.this) {
+				final SimulatedServer elected = elect();
+				if (elected != null) {
+					scheduler.schedule(() -> {
+						synchronized (SimulatedDeployment.this) {
+							if (leader == elected) {
+								announcedLeader = elected;
+							}
+						}
+					}, settleDelay, TimeUnit.MILLISECONDS);
+				}
+			}
+		}, failoverDelay, TimeUnit.MILLISECONDS);
+	}
+
+	private SimulatedServer elect() {
+		if (leader != null || !hasAgencyQuorum()) {
+			return null;
+		}
+		leader = instances(ServerRole.SINGLE).stream().filter(SimulatedServer::isRunning).findFirst().orElse(null);
+		notifyAll();
+		return leader;
+	}
+
+	/**
+	 * Stops and forgets all instances.
+	 */
+	public synchronized void cleanup() {
+		instances.values().forEach(SimulatedServer::destroy);
+		instances.clear();
+		documentStore.clear();
+		nextPort = firstPort;
+		leader = null;
+		announcedLeader = null;
+	}
+
+	public void close() {
+		cleanup();
+		scheduler.shutdownNow();
+	}
+
+}
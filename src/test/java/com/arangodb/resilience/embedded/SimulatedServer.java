@@ -0,0 +1,933 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.embedded;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UnsupportedEncodingException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.URLDecoder;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import com.arangodb.velocypack.VPackBuilder;
+import com.arangodb.velocypack.VPackParser;
+import com.arangodb.velocypack.VPackSlice;
+import com.arangodb.velocypack.ValueType;
+import com.arangodb.velocystream.Request;
+import com.arangodb.velocystream.RequestType;
+import com.arangodb.velocystream.Response;
+
+/**
+ * Lightweight stand-in for an arangod process. Speaks VelocyStream and HTTP (JSON and VelocyPack) on the same port and
+ * answers the small set of APIs the resilience tests use.
+ */
+public class SimulatedServer {
+
+	public static final String VERSION = "3.4.0";
+	public static final String HEADER_ENDPOINT = "X-Arango-Endpoint";
+	/**
+	 * Response header with the microseconds the server spent on the request, from the parsed request to the
+	 * unserialized response. Only sent by simulated servers.
+	 */
+	public static final String HEADER_SERVER_TIME = "X-Simulated-Server-Time";
+
+	private static final String HEADER_ALLOW_DIRTY_READ = "X-Arango-Allow-Dirty-Read";
+	private static final byte[] VST_PROTOCOL_HEADER = "VST/1.0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+	private static final int VST_CHUNK_SIZE = 30000;
+	private static final long SHUTDOWN_GRACE_PERIOD = 250L;
+	private static final int VST_AUTHENTICATION = 1000;
+	private static final String CONTENT_TYPE_VPACK = "application/x-velocypack";
+	private static final String CONTENT_TYPE_JSON = "application/json; charset=utf-8";
+	private static final VPackParser PARSER = new VPackParser.Builder().build();
+	// FOR i IN 1..10 RETURN i, or RETURN @value to return a bind parameter for every i
+	private static final Pattern RANGE_QUERY = Pattern.compile(
+		"FOR\\s+\\w+\\s+IN\\s+(-?\\d+)\\s*\\.\\.\\s*(-?\\d+)\\s+RETURN\\s+(@?)(\\w+)", Pattern.CASE_INSENSITIVE);
+	private static final Pattern SLEEP_QUERY = Pattern.compile("RETURN\\s+SLEEP\\(\\s*(\\d+(?:\\.\\d+)?)\\s*\\)",
+		Pattern.CASE_INSENSITIVE);
+	private static final Collection<String> FOLLOWER_PATHS = Arrays.asList("/_api/version",
+		"/_api/replication/server-id", "/_api/cluster/endpoints");
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+	// threads of all simulated servers, tells their CPU time and allocations apart from the client's
+	private static final ThreadGroup THREADS = new ThreadGroup("simulated-servers");
+	private static final AtomicInteger SHORT_IDS = new AtomicInteger();
+	private static final AtomicLong TICKS = new AtomicLong();
+	// bytes on the wire of all simulated servers in this JVM, protocol framing and headers included
+	private static final LongAdder BYTES_RECEIVED = new LongAdder();
+	private static final LongAdder BYTES_SENT = new LongAdder();
+
+	private final SimulatedDeployment deployment;
+	private final String name;
+	private final ServerRole role;
+	private final String serverId;
+	private final String host;
+	private final ExecutorService executor;
+	private final Set<Socket> connections;
+	private final Map<String, Cursor> cursors;
+	private final int shortId;
+	private final Semaphore workers;
+	private volatile ServerSocket serverSocket;
+	private volatile int port;
+
+	public SimulatedServer(final SimulatedDeployment deployment, final String name, final ServerRole role,
+		final String host) {
+		this(deployment, name, role, host, 0);
+	}
+
+	/**
+	 * @param port
+	 *            port to bind or {@code 0} to pick a free one on the first start
+	 */
+	public SimulatedServer(final SimulatedDeployment deployment, final String name, final ServerRole role,
+		final String host, final int port) {
+		super();
+		this.deployment = deployment;
+		this.name = name;
+		this.role = role;
+		this.host = host;
+		this.port = port;
+		serverId = role.getServerRole().substring(0, 4) + "-" + UUID.randomUUID();
+		executor = Executors.newCachedThreadPool(r -> {
+			final Thread thread = new Thread(THREADS, r, name + "-" + THREAD_COUNTER.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		connections = ConcurrentHashMap.newKeySet();
+		cursors = new ConcurrentHashMap<>();
+		shortId = SHORT_IDS.incrementAndGet() & 0xFFFF;
+		workers = deployment.getServerThreads() > 0 ? new Semaphore(deployment.getServerThreads()) : null;
+	}
+
+	public String getName() {
+		return name;
+	}
+
+	public ServerRole getRole() {
+		return role;
+	}
+
+	public String getServerId() {
+		return serverId;
+	}
+
+	public String getHost() {
+		return host;
+	}
+
+	public int getPort() {
+		return port;
+	}
+
+	public String getEndpoint() {
+		return "tcp://" + host + ":" + port;
+	}
+
+	public boolean isRunning() {
+		return serverSocket != null;
+	}
+
+	/**
+	 * @return whether the thread belongs to a simulated server of this JVM
+	 */
+	public static boolean isServerThread(final Thread thread) {
+		return thread.getThreadGroup() == THREADS;
+	}
+
+	/**
+	 * @return bytes all simulated servers of this JVM received so far, VST chunk and HTTP headers included
+	 */
+	public static long bytesReceived() {
+		return BYTES_RECEIVED.sum();
+	}
+
+	/**
+	 * @return bytes all simulated servers of this JVM sent so far, VST chunk and HTTP headers included
+	 */
+	public static long bytesSent() {
+		return BYTES_SENT.sum();
+	}
+
+	/**
+	 * Binds the server socket. Without a given port the first start picks a free one, every restart binds the same
+	 * port again.
+	 */
+	public synchronized void start() throws IOException {
+		if (isRunning()) {
+			return;
+		}
+		final ServerSocket socket = new ServerSocket();
+		socket.setReuseAddress(true);
+		try {
+			socket.bind(new InetSocketAddress(host, port));
+		} catch (final IOException e) {
+			closeQuietly(socket);
+			throw e;
+		}
+		port = socket.getLocalPort();
+		serverSocket = socket;
+		executor.execute(() -> accept(socket));
+	}
+
+	/**
+	 * @param kill
+	 *            if {@code true} all open connections are reset. Otherwise the server half-closes them and gives the
+	 *            clients up to {@value #SHUTDOWN_GRACE_PERIOD} ms to close their side first.
+	 */
+	public synchronized void stop(final boolean kill) {
+		final ServerSocket socket = serverSocket;
+		if (socket == null) {
+			return;
+		}
+		serverSocket = null;
+		closeQuietly(socket);
+		if (!kill) {
+			drain();
+		}
+		for (final Socket connection : connections) {
+			if (kill) {
+				try {
+					connection.setSoLinger(true, 0);
+				} catch (final IOException e) {
+				}
+			}
+			closeQuietly(connection);
+		}
+		connections.clear();
+		cursors.clear();
+	}
+
+	private void drain() {
+		for (final Socket connection : connections) {
+			try {
+				connection.shutdownOutput();
+			} catch (final IOException e) {
+			}
+		}
+		final long deadline = System.currentTimeMillis() + SHUTDOWN_GRACE_PERIOD;
+		while (!connections.isEmpty() && System.currentTimeMillis() < deadline) {
+			try {
+				Thread.sleep(5);
+			} catch (final InterruptedException e) {
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Stops the server and releases its threads. The server can not be started again afterwards.
+	 */
+	public void destroy() {
+		stop(true);
+		executor.shutdownNow();
+	}
+
+	private void accept(final ServerSocket socket) {
+		while (!socket.isClosed()) {
+			try {
+				final Socket connection = socket.accept();
+				connection.setTcpNoDelay(true);
+				connections.add(connection);
+				if (serverSocket != socket) {
+					connections.remove(connection);
+					closeQuietly(connection);
+					continue;
+				}
+				executor.execute(() -> serve(connection));
+			} catch (final IOException e) {
+				// server socket closed
+			}
+		}
+	}
+
+	private void serve(final Socket connection) {
+		try {
+			final InputStream in = new BufferedInputStream(new CountingInputStream(connection.getInputStream()));
+			final OutputStream out = new BufferedOutputStream(new CountingOutputStream(connection.getOutputStream()));
+			in.mark(VST_PROTOCOL_HEADER.length);
+			final byte[] prefix = new byte[VST_PROTOCOL_HEADER.length];
+			readFully(in, prefix);
+			if (Arrays.equals(prefix, VST_PROTOCOL_HEADER)) {
+				serveVst(in, out);
+			} else {
+				in.reset();
+				serveHttp(in, out);
+			}
+		} catch (final IOException e) {
+			// connection closed by peer or server stopped
+		} finally {
+			connections.remove(connection);
+			closeQuietly(connection);
+		}
+	}
+
+	private void serveVst(final InputStream in, final OutputStream out) throws IOException {
+		final Map<Long, ByteBuffer> messages = new HashMap<>();
+		while (true) {
+			final ByteBuffer chunkHead = read(in, 16);
+			final int length = chunkHead.getInt();
+			final int chunkX = chunkHead.getInt();
+			final long messageId = chunkHead.getLong();
+			long messageLength = -1;
+			int contentLength = length - 16;
+			if (1 == (chunkX & 1) && (chunkX >> 1) > 1) {
+				messageLength = read(in, 8).getLong();
+				contentLength -= 8;
+			}
+			final byte[] content = new byte[contentLength];
+			readFully(in, content);
+			ByteBuffer message = messages.get(messageId);
+			if (message == null) {
+				message = ByteBuffer.allocate(messageLength > 0 ? (int) messageLength : contentLength);
+				messages.put(messageId, message);
+			}
+			message.put(content);
+			if (!message.hasRemaining()) {
+				messages.remove(messageId);
+				final byte[] buffer = message.array();
+				executor.execute(() -> respondVst(out, messageId, buffer));
+			}
+		}
+	}
+
+	private void respondVst(final OutputStream out, final long messageId, final byte[] buffer) {
+		final VPackSlice head = new VPackSlice(buffer);
+		final int headSize = head.getByteSize();
+		final Response response;
+		if (head.get(1).getAsInt() == VST_AUTHENTICATION) {
+			response = response(200, null);
+		} else {
+			final Request request = new Request(stringOrNull(head.get(2)),
+					RequestType.fromType(head.get(3).getAsInt()), head.get(4).getAsString());
+			for (final Iterator<Entry<String, VPackSlice>> it = head.get(5).objectIterator(); it.hasNext();) {
+				final Entry<String, VPackSlice> param = it.next();
+				request.putQueryParam(param.getKey(), stringOrNull(param.getValue()));
+			}
+			for (final Iterator<Entry<String, VPackSlice>> it = head.get(6).objectIterator(); it.hasNext();) {
+				final Entry<String, VPackSlice> param = it.next();
+				request.putHeaderParam(param.getKey(), stringOrNull(param.getValue()));
+			}
+			if (buffer.length > headSize) {
+				request.setBody(new VPackSlice(buffer, headSize));
+			}
+			response = timed(request);
+		}
+		final VPackBuilder builder = new VPackBuilder().add(ValueType.ARRAY).add(1).add(2)
+				.add(response.getResponseCode()).add(ValueType.OBJECT);
+		for (final Entry<String, String> meta : response.getMeta().entrySet()) {
+			builder.add(meta.getKey(), meta.getValue());
+		}
+		final VPackSlice responseHead = builder.close().close().slice();
+		final ByteArrayOutputStream payload = new ByteArrayOutputStream();
+		payload.write(responseHead.getBuffer(), responseHead.getStart(), responseHead.getByteSize());
+		final VPackSlice body = response.getBody();
+		if (body != null) {
+			payload.write(body.getBuffer(), body.getStart(), body.getByteSize());
+		}
+		try {
+			writeVst(out, messageId, payload.toByteArray());
+		} catch (final IOException e) {
+			// connection closed by peer or server stopped
+		}
+	}
+
+	private static void writeVst(final OutputStream out, final long messageId, final byte[] payload)
+			throws IOException {
+		final int size = payload.length;
+		final int numberOfChunks = (size + VST_CHUNK_SIZE - 1) / VST_CHUNK_SIZE;
+		synchronized (out) {
+			for (int i = 0, off = 0; i < numberOfChunks; i++) {
+				final int len = Math.min(VST_CHUNK_SIZE, size - off);
+				final boolean messageLength = i == 0 && numberOfChunks > 1;
+				final int chunkX = numberOfChunks == 1 ? 3 : i == 0 ? (numberOfChunks << 1) + 1 : i << 1;
+				final ByteBuffer chunkHead = ByteBuffer.allocate(messageLength ? 24 : 16)
+						.order(ByteOrder.LITTLE_ENDIAN);
+				chunkHead.putInt(len + chunkHead.capacity()).putInt(chunkX).putLong(messageId);
+				if (messageLength) {
+					chunkHead.putLong(size);
+				}
+				out.write(chunkHead.array());
+				out.write(payload, off, len);
+				off += len;
+			}
+			out.flush();
+		}
+	}
+
+	private void serveHttp(final InputStream in, final OutputStream out) throws IOException {
+		while (true) {
+			final String requestLine = readLine(in);
+			if (requestLine == null) {
+				return;
+			}
+			if (requestLine.isEmpty()) {
+				continue;
+			}
+			final String[] split = requestLine.split(" ");
+			final Map<String, String> headers = new HashMap<>();
+			for (String line = readLine(in); line != null && !line.isEmpty(); line = readLine(in)) {
+				final int colon = line.indexOf(':');
+				if (colon > 0) {
+					headers.put(line.substring(0, colon).trim(), line.substring(colon + 1).trim());
+				}
+			}
+			final String contentLength = header(headers, "Content-Length");
+			final byte[] content = new byte[contentLength != null ? Integer.parseInt(contentLength) : 0];
+			readFully(in, content);
+
+			final String target = split[1];
+			final int query = target.indexOf('?');
+			String path = decode(query >= 0 ? target.substring(0, query) : target);
+			String database = null;
+			if (path.startsWith("/_db/")) {
+				final int slash = path.indexOf('/', 5);
+				database = slash > 0 ? path.substring(5, slash) : path.substring(5);
+				path = slash > 0 ? path.substring(slash) : "/";
+			}
+			final RequestType requestType = RequestType.valueOf(split[0]);
+			final Request request = new Request(database, requestType, path);
+			if (query >= 0) {
+				for (final String param : target.substring(query + 1).split("&")) {
+					final int eq = param.indexOf('=');
+					if (eq > 0) {
+						request.putQueryParam(decode(param.substring(0, eq)), decode(param.substring(eq + 1)));
+					} else if (!param.isEmpty()) {
+						request.putQueryParam(decode(param), "");
+					}
+				}
+			}
+			headers.forEach(request::putHeaderParam);
+			final String contentType = header(headers, "Content-Type");
+			if (content.length > 0) {
+				request.setBody(contentType != null && contentType.startsWith(CONTENT_TYPE_VPACK)
+						? new VPackSlice(content)
+						: PARSER.fromJson(new String(content, StandardCharsets.UTF_8)));
+			}
+			final String accept = header(headers, "Accept");
+			final Response response = timed(request);
+			writeHttp(out, requestType, response, accept != null && accept.startsWith(CONTENT_TYPE_VPACK));
+			if ("close".equalsIgnoreCase(header(headers, "Connection"))) {
+				return;
+			}
+		}
+	}
+
+	private static void writeHttp(
+		final OutputStream out,
+		final RequestType requestType,
+		final Response response,
+		final boolean vpack) throws IOException {
+		final VPackSlice body = response.getBody();
+		final byte[] content;
+		if (body == null) {
+			content = new byte[0];
+		} else if (vpack) {
+			content = Arrays.copyOfRange(body.getBuffer(), body.getStart(), body.getStart() + body.getByteSize());
+		} else {
+			content = PARSER.toJson(body, true).getBytes(StandardCharsets.UTF_8);
+		}
+		final StringBuilder head = new StringBuilder().append("HTTP/1.1 ").append(response.getResponseCode())
+				.append(' ').append(reasonPhrase(response.getResponseCode())).append("\r\n")
+				.append("Server: ArangoDB\r\n").append("Connection: Keep-Alive\r\n");
+		if (body != null) {
+			head.append("Content-Type: ").append(vpack ? CONTENT_TYPE_VPACK : CONTENT_TYPE_JSON).append("\r\n");
+		}
+		head.append("Content-Length: ").append(content.length).append("\r\n");
+		for (final Entry<String, String> meta : response.getMeta().entrySet()) {
+			head.append(meta.getKey()).append(": ").append(meta.getValue()).append("\r\n");
+		}
+		head.append("\r\n");
+		out.write(head.toString().getBytes(StandardCharsets.ISO_8859_1));
+		if (requestType != RequestType.HEAD) {
+			out.write(content);
+		}
+		out.flush();
+	}
+
+	private Response timed(final Request request) {
+		final long start = System.nanoTime();
+		final Response response = handle(request);
+		response.getMeta().put(HEADER_SERVER_TIME,
+			String.valueOf(TimeUnit.NANOSECONDS.toMicros(System.nanoTime() - start)));
+		return response;
+	}
+
+	/**
+	 * Applies the active failover rules of a single server before the request is routed: followers only answer a
+	 * few administrative APIs and dirty reads, everything else is redirected to the leader with a
+	 * {@code X-Arango-Endpoint} header.
+	 */
+	protected Response handle(final Request request) {
+		if (role == ServerRole.SINGLE && deployment.isActiveFailover()) {
+			final SimulatedServer leader = deployment.getAnnouncedLeader();
+			if (leader != this) {
+				if (FOLLOWER_PATHS.contains(request.getRequest())) {
+					final Response response = route(request);
+					if (leader != null) {
+						response.getMeta().put(HEADER_ENDPOINT, leader.getEndpoint());
+					}
+					return response;
+				}
+				if (!"true".equals(header(request.getHeaderParam(), HEADER_ALLOW_DIRTY_READ))) {
+					final Response response = error(503, 1496, "not a leader");
+					if (leader != null && leader.isRunning()) {
+						response.getMeta().put(HEADER_ENDPOINT, leader.getEndpoint());
+					}
+					return response;
+				}
+			}
+		}
+		return route(request);
+	}
+
+	protected Response route(final Request request) {
+		final String path = request.getRequest();
+		final RequestType type = request.getRequestType();
+		if ("/_admin/status".equals(path)) {
+			return status();
+		}
+		if ("/_api/version".equals(path)) {
+			return response(200, new VPackBuilder().add(ValueType.OBJECT).add("server", "arango")
+					.add("version", VERSION).add("license", "community").close().slice());
+		}
+		if ("/_api/replication/server-id".equals(path)) {
+			return response(200, new VPackBuilder().add(ValueType.OBJECT).add("serverId", serverId).close().slice());
+		}
+		if ("/_api/cluster/endpoints".equals(path)) {
+			return endpoints();
+		}
+		if ("/_api/cursor".equals(path) && type == RequestType.POST) {
+			return createCursor(request.getBody());
+		}
+		if (path.startsWith("/_api/cursor/")) {
+			final String id = path.substring("/_api/cursor/".length());
+			if (type == RequestType.PUT) {
+				return nextBatch(id);
+			}
+			if (type == RequestType.DELETE) {
+				return deleteCursor(id);
+			}
+		}
+		if (path.startsWith("/_api/collection")) {
+			return collection(request);
+		}
+		if (path.startsWith("/_api/document/")) {
+			return document(request);
+		}
+		return error(404, 404, "unknown path '" + path + "'");
+	}
+
+	private Response collection(final Request request) {
+		final DocumentStore store = deployment.getDocumentStore();
+		final String[] path = request.getRequest().split("/");
+		if (request.getRequestType() == RequestType.POST && path.length == 3) {
+			final String name = request.getBody().get("name").getAsString();
+			if (!store.createCollection(name)) {
+				return error(409, 1207, "duplicate name");
+			}
+			return collectionInfo(name);
+		}
+		if (request.getRequestType() == RequestType.GET && path.length >= 4) {
+			if (!store.hasCollection(path[3])) {
+				return error(404, 1203, "collection or view not found: " + path[3]);
+			}
+			final Response response = collectionInfo(path[3]);
+			if (path.length == 5 && "count".equals(path[4])) {
+				response.setBody(new VPackBuilder().add(ValueType.OBJECT).add("name", path[3])
+						.add("count", store.count(path[3])).add("error", false).add("code", 200).close().slice());
+			}
+			return response;
+		}
+		return error(404, 404, "unknown path '" + request.getRequest() + "'");
+	}
+
+	private static Response collectionInfo(final String name) {
+		return response(200,
+			new VPackBuilder().add(ValueType.OBJECT).add("id", name).add("name", name).add("status", 3)
+					.add("type", 2).add("isSystem", false).add("waitForSync", false).add("error", false)
+					.add("code", 200).close().slice());
+	}
+
+	private Response document(final Request request) {
+		final DocumentStore store = deployment.getDocumentStore();
+		final String[] path = request.getRequest().split("/");
+		final String collection = path[3];
+		final String key = path.length > 4 ? path[4] : null;
+		if (!store.hasCollection(collection)) {
+			return error(404, 1203, "collection or view not found: " + collection);
+		}
+		final RequestType type = request.getRequestType();
+		if (key == null && type == RequestType.POST || key != null && type == RequestType.PUT) {
+			return documentHeader(202, store.put(collection, key, request.getBody()));
+		}
+		final VPackSlice document = type == RequestType.DELETE ? store.remove(collection, key)
+				: store.get(collection, key);
+		if (key == null || document == null) {
+			return error(404, 1202, "document not found");
+		}
+		if (type == RequestType.GET) {
+			return response(200, document);
+		}
+		if (type == RequestType.HEAD) {
+			return response(200, null);
+		}
+		if (type == RequestType.DELETE) {
+			return documentHeader(202, document);
+		}
+		return error(405, 405, "method not supported");
+	}
+
+	private static Response documentHeader(final int code, final VPackSlice document) {
+		return response(code, new VPackBuilder().add(ValueType.OBJECT).add("_id", document.get("_id"))
+				.add("_key", document.get("_key")).add("_rev", document.get("_rev")).close().slice());
+	}
+
+	private Response status() {
+		return response(200,
+			new VPackBuilder().add(ValueType.OBJECT).add("server", "arango").add("version", VERSION)
+					.add("mode", "server").add("serverInfo", ValueType.OBJECT).add("role", role.getServerRole())
+					.add("serverId", serverId).add("maintenance", false).close().close().slice());
+	}
+
+	private Response endpoints() {
+		final Collection<SimulatedServer> servers = deployment.endpoints(this);
+		if (servers == null) {
+			return error(403, 11, "not in cluster mode");
+		}
+		final VPackBuilder builder = new VPackBuilder().add(ValueType.OBJECT).add("error", false).add("code", 200)
+				.add("endpoints", ValueType.ARRAY);
+		for (final SimulatedServer server : servers) {
+			builder.add(ValueType.OBJECT).add("endpoint", server.getEndpoint()).close();
+		}
+		return response(200, builder.close().close().slice());
+	}
+
+	private Response createCursor(final VPackSlice body) {
+		final VPackSlice query = body != null ? body.get("query") : null;
+		final Matcher sleep = query != null && query.isString() ? SLEEP_QUERY.matcher(query.getAsString().trim())
+				: null;
+		if (sleep != null && sleep.matches()) {
+			return sleep(Double.parseDouble(sleep.group(1)));
+		}
+		final Matcher matcher = query != null && query.isString() ? RANGE_QUERY.matcher(query.getAsString().trim())
+				: null;
+		if (matcher == null || !matcher.matches()) {
+			return error(400, 1501, "syntax error, unexpected query");
+		}
+		final long from = Long.parseLong(matcher.group(1));
+		final long to = Long.parseLong(matcher.group(2));
+		final VPackSlice batchSize = body.get("batchSize");
+		final VPackSlice count = body.get("count");
+		VPackSlice value = null;
+		if (!matcher.group(3).isEmpty()) {
+			final VPackSlice bindVars = body.get("bindVars");
+			value = bindVars.isObject() ? bindVars.get(matcher.group(4)) : null;
+			if (value == null || value.isNone()) {
+				return error(400, 1552, "no value specified for declared bind parameter '" + matcher.group(4) + "'");
+			}
+		}
+		final Cursor cursor = new Cursor(from, to, batchSize.isInteger() ? Math.max(1, batchSize.getAsInt()) : 1000,
+				count.isBoolean() && count.getAsBoolean(), value);
+		return batch(String.valueOf(newServerSpecificTick()), cursor, 201);
+	}
+
+	/**
+	 * Answers {@code RETURN SLEEP(seconds)} after the given time, standing in for server-side work that does not take
+	 * CPU from the client. With {@link SimulatedDeployment#getServerThreads()} set, a query waits for one of the
+	 * server's workers first, so a server has a capacity of its own although it shares the CPU with the client.
+	 */
+	private Response sleep(final double seconds) {
+		try {
+			if (workers != null) {
+				workers.acquire();
+			}
+			try {
+				TimeUnit.NANOSECONDS.sleep((long) (seconds * TimeUnit.SECONDS.toNanos(1)));
+			} finally {
+				if (workers != null) {
+					workers.release();
+				}
+			}
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return error(500, 1500, "query killed");
+		}
+		return response(201, new VPackBuilder().add(ValueType.OBJECT).add("result", ValueType.ARRAY)
+				.add(ValueType.NULL).close().add("hasMore", false).add("cached", false).add("error", false)
+				.add("code", 201).close().slice());
+	}
+
+	/**
+	 * Like arangod, cursor ids carry the short id of the server which owns the cursor in their lowest 16 bits, so
+	 * they are unique within the deployment.
+	 */
+	private long newServerSpecificTick() {
+		return TICKS.incrementAndGet() << 16 | shortId;
+	}
+
+	private Response nextBatch(final String id) {
+		final Cursor cursor = cursors.get(id);
+		if (cursor == null) {
+			return error(404, 1600, "cursor not found");
+		}
+		return batch(id, cursor, 200);
+	}
+
+	private Response deleteCursor(final String id) {
+		if (cursors.remove(id) == null) {
+			return error(404, 1600, "cursor not found");
+		}
+		return response(202, new VPackBuilder().add(ValueType.OBJECT).add("id", id).add("error", false)
+				.add("code", 202).close().slice());
+	}
+
+	private Response batch(final String id, final Cursor cursor, final int code) {
+		final VPackBuilder builder = new VPackBuilder().add(ValueType.OBJECT).add("result", ValueType.ARRAY);
+		synchronized (cursor) {
+			for (int i = 0; i < cursor.batchSize && cursor.hasNext(); i++) {
+				final Long next = cursor.next();
+				if (cursor.value != null) {
+					builder.add(cursor.value);
+				} else {
+					builder.add(next);
+				}
+			}
+		}
+		builder.close();
+		final boolean hasMore = cursor.hasNext();
+		if (hasMore) {
+			cursors.put(id, cursor);
+			builder.add("id", id);
+		} else {
+			cursors.remove(id);
+		}
+		if (cursor.count) {
+			builder.add("count", cursor.size());
+		}
+		return response(code, builder.add("hasMore", hasMore).add("cached", false).add("error", false)
+				.add("code", code).close().slice());
+	}
+
+	protected static Response response(final int code, final VPackSlice body) {
+		final Response response = new Response();
+		response.setResponseCode(code);
+		response.setMeta(new HashMap<>());
+		response.setBody(body);
+		return response;
+	}
+
+	protected static Response error(final int code, final int errorNum, final String errorMessage) {
+		return response(code, new VPackBuilder().add(ValueType.OBJECT).add("error", true).add("code", code)
+				.add("errorNum", errorNum).add("errorMessage", errorMessage).close().slice());
+	}
+
+	protected static String header(final Map<String, String> headers, final String name) {
+		for (final Entry<String, String> header : headers.entrySet()) {
+			if (header.getKey().equalsIgnoreCase(name)) {
+				return header.getValue();
+			}
+		}
+		return null;
+	}
+
+	private static String stringOrNull(final VPackSlice slice) {
+		return slice.isString() ? slice.getAsString() : null;
+	}
+
+	private static String decode(final String value) {
+		try {
+			return URLDecoder.decode(value, "UTF-8");
+		} catch (final UnsupportedEncodingException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	private static String reasonPhrase(final int code) {
+		switch (code) {
+		case 200:
+			return "OK";
+		case 201:
+			return "Created";
+		case 202:
+			return "Accepted";
+		case 400:
+			return "Bad Request";
+		case 403:
+			return "Forbidden";
+		case 404:
+			return "Not Found";
+		case 503:
+			return "Service Unavailable";
+		default:
+			return code < 400 ? "OK" : "Internal Server Error";
+		}
+	}
+
+	private static ByteBuffer read(final InputStream in, final int length) throws IOException {
+		final byte[] buffer = new byte[length];
+		readFully(in, buffer);
+		return ByteBuffer.wrap(buffer).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	private static void readFully(final InputStream in, final byte[] buffer) throws IOException {
+		for (int off = 0; off < buffer.length;) {
+			final int read = in.read(buffer, off, buffer.length - off);
+			if (read < 0) {
+				throw new EOFException();
+			}
+			off += read;
+		}
+	}
+
+	private static String readLine(final InputStream in) throws IOException {
+		final StringBuilder line = new StringBuilder();
+		for (int c = in.read(); c != '\n'; c = in.read()) {
+			if (c < 0) {
+				if (line.length() == 0) {
+					return null;
+				}
+				throw new EOFException();
+			}
+			if (c != '\r') {
+				line.append((char) c);
+			}
+		}
+		return line.toString();
+	}
+
+	private static void closeQuietly(final java.io.Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (final IOException e) {
+		}
+	}
+
+	private static class CountingInputStream extends FilterInputStream {
+
+		CountingInputStream(final InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			final int b = super.read();
+			if (b >= 0) {
+				BYTES_RECEIVED.increment();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(final byte[] b, final int off, final int len) throws IOException {
+			final int read = super.read(b, off, len);
+			if (read > 0) {
+				BYTES_RECEIVED.add(read);
+			}
+			return read;
+		}
+
+	}
+
+	private static class CountingOutputStream extends FilterOutputStream {
+
+		CountingOutputStream(final OutputStream out) {
+			super(out);
+		}
+
+		@Override
+		public void write(final int b) throws IOException {
+			out.write(b);
+			BYTES_SENT.increment();
+		}
+
+		@Override
+		public void write(final byte[] b, final int off, final int len) throws IOException {
+			out.write(b, off, len);
+			BYTES_SENT.add(len);
+		}
+
+	}
+
+	private static class Cursor implements Iterator<Long> {
+
+		private final long from;
+		private final long to;
+		private final int batchSize;
+		private final boolean count;
+		// returned for every element instead of the loop variable, if set
+		private final VPackSlice value;
+		private long next;
+
+		Cursor(final long from, final long to, final int batchSize, final boolean count, final VPackSlice value) {
+			super();
+			this.from = from;
+			this.to = to;
+			this.batchSize = batchSize;
+			this.count = count;
+			this.value = value;
+			next = from;
+		}
+
+		@Override
+		public boolean hasNext() {
+			return next <= to;
+		}
+
+		@Override
+		public Long next() {
+			return next++;
+		}
+
+		int size() {
+			return (int) Math.max(0, to - from + 1);
+		}
+
+	}
+
+}
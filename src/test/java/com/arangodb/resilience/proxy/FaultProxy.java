@@ -0,0 +1,622 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.proxy;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Non-blocking TCP proxy in front of one server endpoint which injects network faults on command: latency with
+ * jitter, a bandwidth cap, connection resets, black-holing and half-open connections. In front of several endpoints it
+ * acts as a TCP load balancer, handing every new connection to the next endpoint which accepts it.
+ *
+ * <p>
+ * All connections are served by one selector thread. Data is read into a direct buffer per direction and written
+ * from there to the other side; only data held back by latency or the bandwidth cap is copied into a queue.
+ * </p>
+ */
+public class FaultProxy implements Closeable {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FaultProxy.class);
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	// stop reading from a side while this many bytes wait for the other side
+	private static final int MAX_QUEUED = 1024 * 1024;
+	private static final int CONNECT_TIMEOUT = 1000;
+
+	private final List<InetSocketAddress> targets;
+	private final Selector selector;
+	private final ServerSocketChannel server;
+	private final List<Connection> connections;
+	private final Queue<Runnable> commands;
+	private final Thread thread;
+	private final LongAdder bytesToServer;
+	private final LongAdder bytesToClient;
+	private final LongAdder accepted;
+	private int nextTarget;
+
+	private volatile long latency;
+	private volatile long jitter;
+	private volatile long bytesPerSecond;
+	private volatile boolean blackhole;
+	private volatile boolean resetNewConnections;
+
+	/**
+	 * Starts a proxy on a free port of {@code host} forwarding to {@code targetHost:targetPort}.
+	 */
+	public FaultProxy(final String host, final String targetHost, final int targetPort) {
+		this(host, Collections.singletonList(new InetSocketAddress(targetHost, targetPort)));
+	}
+
+	/**
+	 * Starts a proxy on a free port of {@code host} balancing new connections round robin over {@code targets}.
+	 */
+	public FaultProxy(final String host, final List<InetSocketAddress> targets) {
+		super();
+		this.targets = new ArrayList<>(targets);
+		connections = new ArrayList<>();
+		commands = new ConcurrentLinkedQueue<>();
+		bytesToServer = new LongAdder();
+		bytesToClient = new LongAdder();
+		accepted = new LongAdder();
+		try {
+			selector = Selector.open();
+			server = ServerSocketChannel.open();
+			server.bind(new InetSocketAddress(host, 0));
+			server.configureBlocking(false);
+			server.register(selector, SelectionKey.OP_ACCEPT);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+		thread = new Thread(this::loop, "fault-proxy-" + getPort());
+		thread.setDaemon(true);
+		thread.start();
+	}
+
+	public String getHost() {
+		return server.socket().getInetAddress().getHostAddress();
+	}
+
+	public int getPort() {
+		return server.socket().getLocalPort();
+	}
+
+	public String getEndpoint() {
+		return "tcp://" + getHost() + ":" + getPort();
+	}
+
+	/**
+	 * @return bytes forwarded from clients to the server since the proxy started
+	 */
+	public long getBytesToServer() {
+		return bytesToServer.sum();
+	}
+
+	/**
+	 * @return bytes forwarded from the server to clients since the proxy started
+	 */
+	public long getBytesToClient() {
+		return bytesToClient.sum();
+	}
+
+	/**
+	 * @return client connections accepted since the proxy started
+	 */
+	public long getAcceptedConnections() {
+		return accepted.sum();
+	}
+
+	/**
+	 * Delays every chunk of data in both directions by {@code millis} plus a random jitter of up to
+	 * {@code jitterMillis}. The order of the data is kept.
+	 */
+	public FaultProxy latency(final long millis, final long jitterMillis) {
+		latency = TimeUnit.MILLISECONDS.toNanos(millis);
+		jitter = TimeUnit.MILLISECONDS.toNanos(jitterMillis);
+		return this;
+	}
+
+	/**
+	 * Limits each direction of each connection to {@code bytesPerSecond}, {@code 0} for no limit. Bursts are limited to
+	 * 100 ms worth of data.
+	 */
+	public FaultProxy bandwidth(final long bytesPerSecond) {
+		this.bytesPerSecond = bytesPerSecond;
+		resetBandwidth();
+		return this;
+	}
+
+	/**
+	 * Silently drops all data in both directions while enabled. Connections stay open and new connections are
+	 * accepted, so clients only notice through their timeouts.
+	 */
+	public FaultProxy blackhole(final boolean blackhole) {
+		this.blackhole = blackhole;
+		return this;
+	}
+
+	/**
+	 * Resets every new connection right after accepting it while enabled.
+	 */
+	public FaultProxy resetNewConnections(final boolean reset) {
+		resetNewConnections = reset;
+		return this;
+	}
+
+	/**
+	 * Resets all open connections, as a crashed server or a middlebox dropping its state would.
+	 */
+	public void resetConnections() {
+		command(() -> new ArrayList<>(connections).forEach(Connection::reset));
+	}
+
+	/**
+	 * Turns all open connections half-open: the server side is closed, while the client side stays open and silently
+	 * swallows everything the client sends. New connections are not affected.
+	 */
+	public void halfOpenConnections() {
+		command(() -> connections.forEach(Connection::halfOpen));
+	}
+
+	/**
+	 * Removes all faults. Half-open connections stay half-open.
+	 */
+	public FaultProxy heal() {
+		latency = 0;
+		jitter = 0;
+		bytesPerSecond = 0;
+		blackhole = false;
+		resetNewConnections = false;
+		resetBandwidth();
+		return this;
+	}
+
+	/**
+	 * Starts the token buckets of all open connections empty, so a new limit neither inherits a debt nor a burst.
+	 */
+	private void resetBandwidth() {
+		command(() -> connections.forEach(Connection::resetBandwidth));
+	}
+
+	/**
+	 * @return number of open client connections
+	 */
+	public int connections() {
+		final int[] count = new int[1];
+		command(() -> count[0] = connections.size());
+		return count[0];
+	}
+
+	/**
+	 * Runs {@code command} on the selector thread and waits until it is done.
+	 */
+	private void command(final Runnable command) {
+		if (!thread.isAlive()) {
+			return;
+		}
+		final CountDownLatch done = new CountDownLatch(1);
+		commands.add(() -> {
+			try {
+				command.run();
+			} finally {
+				done.countDown();
+			}
+		});
+		selector.wakeup();
+		try {
+			done.await(10, TimeUnit.SECONDS);
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	@Override
+	public void close() {
+		command(() -> {
+			new ArrayList<>(connections).forEach(Connection::close);
+			closeQuietly(server);
+		});
+		thread.interrupt();
+		selector.wakeup();
+		try {
+			thread.join(TimeUnit.SECONDS.toMillis(10));
+		} catch (final InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+		closeQuietly(selector);
+	}
+
+	private void loop() {
+		try {
+			while (!Thread.currentThread().isInterrupted() && server.isOpen()) {
+				long wakeup = Long.MAX_VALUE;
+				for (final Connection connection : connections) {
+					wakeup = Math.min(wakeup, connection.nextWakeup());
+				}
+				if (wakeup == Long.MAX_VALUE) {
+					selector.select();
+				} else {
+					selector.select(Math.max(1L, TimeUnit.NANOSECONDS.toMillis(wakeup - System.nanoTime())));
+				}
+				for (Runnable command = commands.poll(); command != null; command = commands.poll()) {
+					command.run();
+				}
+				final Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					final SelectionKey key = keys.next();
+					keys.remove();
+					if (!key.isValid()) {
+						continue;
+					}
+					if (key.isAcceptable()) {
+						accept();
+					} else {
+						((Connection) key.attachment()).handle(key);
+					}
+				}
+				for (final Connection connection : new ArrayList<>(connections)) {
+					connection.flush();
+				}
+			}
+		} catch (final IOException e) {
+			LOGGER.warn("fault proxy {} stopped", getPort(), e);
+		} finally {
+			new ArrayList<>(connections).forEach(Connection::close);
+			for (Runnable command = commands.poll(); command != null; command = commands.poll()) {
+				command.run();
+			}
+		}
+	}
+
+	private void accept() throws IOException {
+		final SocketChannel client = server.accept();
+		if (client == null) {
+			return;
+		}
+		accepted.increment();
+		final SocketChannel upstream = resetNewConnections ? null : connect();
+		if (upstream == null) {
+			reset(client);
+			return;
+		}
+		client.configureBlocking(false);
+		client.setOption(StandardSocketOptions.TCP_NODELAY, true);
+		final Connection connection = new Connection(client, upstream);
+		connections.add(connection);
+		connection.clientKey = client.register(selector, 0, connection);
+		connection.upstreamKey = upstream.register(selector, 0, connection);
+		connection.updateInterest();
+	}
+
+	/**
+	 * Connects to the next target in round robin order, skipping targets which refuse the connection. The connect
+	 * blocks the selector thread, which is fine for targets on the local machine.
+	 *
+	 * @return the connected channel or {@code null} if no target accepted the connection
+	 */
+	private SocketChannel connect() {
+		for (int i = 0; i < targets.size(); i++) {
+			final InetSocketAddress target = targets.get(nextTarget++ % targets.size());
+			SocketChannel upstream = null;
+			try {
+				upstream = SocketChannel.open();
+				upstream.socket().connect(target, CONNECT_TIMEOUT);
+				upstream.configureBlocking(false);
+				upstream.setOption(StandardSocketOptions.TCP_NODELAY, true);
+				return upstream;
+			} catch (final IOException e) {
+				if (upstream != null) {
+					closeQuietly(upstream);
+				}
+			}
+		}
+		return null;
+	}
+
+	private static void reset(final SocketChannel channel) {
+		try {
+			channel.setOption(StandardSocketOptions.SO_LINGER, 0);
+		} catch (final IOException e) {
+			// closed anyway
+		}
+		closeQuietly(channel);
+	}
+
+	private static void closeQuietly(final Closeable closeable) {
+		try {
+			closeable.close();
+		} catch (final IOException e) {
+			// ignore
+		}
+	}
+
+	/**
+	 * A client connection and its connection to the target, forwarding in both directions.
+	 */
+	private class Connection {
+
+		private final SocketChannel client;
+		private final SocketChannel upstream;
+		private final Pipe up;
+		private final Pipe down;
+		private SelectionKey clientKey;
+		private SelectionKey upstreamKey;
+		private boolean halfOpen;
+		private boolean closed;
+
+		Connection(final SocketChannel client, final SocketChannel upstream) {
+			super();
+			this.client = client;
+			this.upstream = upstream;
+			up = new Pipe(client, upstream, bytesToServer);
+			down = new Pipe(upstream, client, bytesToClient);
+		}
+
+		void handle(final SelectionKey key) {
+			try {
+				if (key.isReadable()) {
+					(key == clientKey ? up : down).read();
+				}
+				if (key.isWritable()) {
+					(key == clientKey ? down : up).write();
+				}
+				if (up.done() && down.done() || halfOpen && up.eof) {
+					close();
+				}
+			} catch (final IOException e) {
+				reset();
+			}
+			updateInterest();
+		}
+
+		void flush() {
+			if (closed) {
+				return;
+			}
+			try {
+				up.write();
+				down.write();
+				if (up.done() && down.done()) {
+					close();
+				}
+			} catch (final IOException e) {
+				reset();
+			}
+			updateInterest();
+		}
+
+		long nextWakeup() {
+			return Math.min(up.nextWakeup(), down.nextWakeup());
+		}
+
+		void updateInterest() {
+			if (closed) {
+				return;
+			}
+			clientKey.interestOps((up.canRead() ? SelectionKey.OP_READ : 0) | (down.blocked ? SelectionKey.OP_WRITE : 0));
+			if (!halfOpen) {
+				upstreamKey.interestOps(
+					(down.canRead() ? SelectionKey.OP_READ : 0) | (up.blocked ? SelectionKey.OP_WRITE : 0));
+			}
+		}
+
+		void halfOpen() {
+			if (closed || halfOpen) {
+				return;
+			}
+			halfOpen = true;
+			closeQuietly(upstream);
+			up.discard = true;
+			down.eof = false;
+			down.queue.clear();
+			down.discard = true;
+			updateInterest();
+		}
+
+		void resetBandwidth() {
+			up.resetBandwidth();
+			down.resetBandwidth();
+		}
+
+		void reset() {
+			FaultProxy.reset(client);
+			FaultProxy.reset(upstream);
+			remove();
+		}
+
+		void close() {
+			closeQuietly(client);
+			closeQuietly(upstream);
+			remove();
+		}
+
+		private void remove() {
+			closed = true;
+			connections.remove(this);
+		}
+
+		/**
+		 * One direction of a connection.
+		 */
+		private class Pipe {
+
+			private final SocketChannel source;
+			private final SocketChannel sink;
+			private final ByteBuffer buffer;
+			private final Deque<Chunk> queue;
+			private final LongAdder forwarded;
+			private int queued;
+			private long lastRelease;
+			private double tokens;
+			private long lastRefill;
+			private boolean eof;
+			private boolean shutdown;
+			private boolean blocked;
+			private boolean discard;
+
+			Pipe(final SocketChannel source, final SocketChannel sink, final LongAdder forwarded) {
+				super();
+				this.source = source;
+				this.sink = sink;
+				this.forwarded = forwarded;
+				buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+				queue = new ArrayDeque<>();
+				lastRefill = System.nanoTime();
+			}
+
+			boolean canRead() {
+				return !eof && queued < MAX_QUEUED && !blocked;
+			}
+
+			boolean done() {
+				return eof && shutdown;
+			}
+
+			void read() throws IOException {
+				buffer.clear();
+				final int read = source.read(buffer);
+				if (read < 0) {
+					eof = true;
+					return;
+				}
+				if (read == 0 || blackhole || discard) {
+					return;
+				}
+				buffer.flip();
+				final long delay = latency + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter) : 0);
+				if (queue.isEmpty() && delay == 0 && bytesPerSecond == 0 && sink.isConnected()) {
+					forwarded.add(sink.write(buffer));
+					if (!buffer.hasRemaining()) {
+						return;
+					}
+				}
+				final ByteBuffer copy = ByteBuffer.allocate(buffer.remaining());
+				copy.put(buffer).flip();
+				// keep the order even if the jitter would let a later chunk overtake an earlier one
+				lastRelease = Math.max(lastRelease, System.nanoTime() + delay);
+				queue.add(new Chunk(copy, lastRelease));
+				queued += copy.remaining();
+			}
+
+			void write() throws IOException {
+				blocked = false;
+				if (!sink.isConnected() || discard && !queue.isEmpty()) {
+					if (discard) {
+						queue.clear();
+						queued = 0;
+					}
+					return;
+				}
+				final long now = System.nanoTime();
+				final long rate = bytesPerSecond;
+				while (!queue.isEmpty() && queue.peek().releaseAt <= now) {
+					final ByteBuffer data = queue.peek().data;
+					final int limit = data.limit();
+					if (rate > 0) {
+						refill(now, rate);
+						if (tokens < 1) {
+							return;
+						}
+						data.limit(data.position() + (int) Math.min(data.remaining(), (long) tokens));
+					}
+					final int written = sink.write(data);
+					forwarded.add(written);
+					data.limit(limit);
+					if (rate > 0) {
+						tokens -= written;
+					}
+					queued -= written;
+					if (data.hasRemaining()) {
+						blocked = written == 0 || rate == 0;
+						return;
+					}
+					queue.poll();
+				}
+				if (eof && queue.isEmpty() && !shutdown && !discard) {
+					shutdown = true;
+					sink.shutdownOutput();
+				}
+			}
+
+			private void refill(final long now, final long rate) {
+				// allow bursts of at most 100 ms worth of data
+				tokens = Math.min(rate / 10.0 + 1, tokens + (now - lastRefill) * rate / 1e9);
+				lastRefill = now;
+			}
+
+			void resetBandwidth() {
+				tokens = 0;
+				lastRefill = System.nanoTime();
+			}
+
+			long nextWakeup() {
+				if (queue.isEmpty() || blocked) {
+					return Long.MAX_VALUE;
+				}
+				final long release = queue.peek().releaseAt;
+				if (bytesPerSecond > 0 && tokens < 1) {
+					return Math.max(release, lastRefill + (long) (1e9 / bytesPerSecond) + 1);
+				}
+				return release;
+			}
+
+		}
+
+	}
+
+	private static class Chunk {
+
+		private final ByteBuffer data;
+		private final long releaseAt;
+
+		Chunk(final ByteBuffer data, final long releaseAt) {
+			super();
+			this.data = data;
+			this.releaseAt = releaseAt;
+		}
+
+	}
+
+}
@@ -0,0 +1,215 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.util;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiFunction;
+import java.util.function.Supplier;
+
+import com.arangodb.internal.net.HostDescription;
+
+/**
+ * Non-blocking view of an {@link InstanceManager}. Every call runs on its own thread and returns right away, so
+ * lifecycle operations on several instances can overlap, e.g. killing two coordinators at the same time or waiting for
+ * many instances in parallel.
+ */
+public class AsyncInstanceManager {
+
+	private static final AtomicInteger THREAD_COUNTER = new AtomicInteger();
+
+	private final InstanceManager im;
+	private final ExecutorService executor;
+	private final ScheduledExecutorService scheduler;
+
+	AsyncInstanceManager(final InstanceManager im) {
+		super();
+		this.im = im;
+		executor = Executors.newCachedThreadPool(r -> {
+			final Thread thread = new Thread(r, "async-instance-manager-" + THREAD_COUNTER.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+		scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+			final Thread thread = new Thread(r, "async-instance-manager-scheduler");
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	private <T> CompletableFuture<T> supply(final Supplier<T> call) {
+		return CompletableFuture.supplyAsync(call, executor);
+	}
+
+	private CompletableFuture<Void> run(final Runnable call) {
+		return CompletableFuture.runAsync(call, executor);
+	}
+
+	public CompletableFuture<HostDescription> startCluster(
+		final int numAgents,
+		final int numCoordinators,
+		final int numDbServeres) {
+		return supply(() -> im.startCluster(numAgents, numCoordinators, numDbServeres));
+	}
+
+	public CompletableFuture<Collection<Instance>> addCoordinators(final int num) {
+		return supply(() -> im.addCoordinators(num));
+	}
+
+	public CompletableFuture<Collection<Instance>> startAgency() {
+		return supply(im::startAgency);
+	}
+
+	public CompletableFuture<Collection<Instance>> startSingleServer(final int num) {
+		return supply(() -> im.startSingleServer(num));
+	}
+
+	public CompletableFuture<Void> waitForAllInstances() {
+		return run(im::waitForAllInstances);
+	}
+
+	public CompletableFuture<Void> waitForInstance(final String name) {
+		return run(() -> im.waitForInstance(name));
+	}
+
+	/**
+	 * Waits for all given instances in parallel.
+	 */
+	public CompletableFuture<Void> waitForInstances(final Collection<Instance> instances) {
+		return CompletableFuture
+				.allOf(instances.stream().map(i -> waitForInstance(i.getName())).toArray(CompletableFuture[]::new));
+	}
+
+	public CompletableFuture<Void> waitForReplicationLeader(final String uuid) {
+		return run(() -> im.waitForReplicationLeader(uuid));
+	}
+
+	public CompletableFuture<Boolean> isRunning(final Instance instance) {
+		return supply(() -> im.isRunning(instance));
+	}
+
+	public CompletableFuture<Void> shutdown(final Instance instance, final boolean kill) {
+		return run(() -> im.shutdown(instance, kill));
+	}
+
+	/**
+	 * Shuts down or kills all given instances at the same time.
+	 */
+	public CompletableFuture<Timeline> shutdown(final Collection<Instance> instances, final boolean kill) {
+		return shutdown(instances, kill, Schedule.allAtOnce());
+	}
+
+	public CompletableFuture<Timeline> shutdown(
+		final Collection<Instance> instances,
+		final boolean kill,
+		final Schedule schedule) {
+		return batch(kill ? "kill" : "shutdown", instances, schedule, (instance, timeline) -> shutdown(instance, kill)
+				.thenRun(() -> timeline.record(instance, Timeline.STOPPED)));
+	}
+
+	public CompletableFuture<Void> kill(final Instance instance) {
+		return shutdown(instance, true);
+	}
+
+	public CompletableFuture<Void> restart(final Instance instance) {
+		return run(() -> im.restart(instance));
+	}
+
+	/**
+	 * Restarts all given instances at the same time and completes once all of them are running again.
+	 */
+	public CompletableFuture<Timeline> restart(final Collection<Instance> instances) {
+		return restart(instances, Schedule.allAtOnce());
+	}
+
+	/**
+	 * Restarts the given instances. Every instance counts as done once it is running again.
+	 */
+	public CompletableFuture<Timeline> restart(final Collection<Instance> instances, final Schedule schedule) {
+		return batch("restart", instances, schedule, this::restartAndWait);
+	}
+
+	/**
+	 * Shuts down or kills and then restarts the given instances, e.g. a rolling restart with
+	 * {@link Schedule#rolling()}. Every instance counts as done once it is running again.
+	 */
+	public CompletableFuture<Timeline> shutdownAndRestart(
+		final Collection<Instance> instances,
+		final boolean kill,
+		final Schedule schedule) {
+		return batch((kill ? "kill" : "shutdown") + " and restart", instances, schedule,
+			(instance, timeline) -> shutdown(instance, kill).thenRun(() -> timeline.record(instance, Timeline.STOPPED))
+					.thenCompose(v -> restartAndWait(instance, timeline)));
+	}
+
+	private CompletableFuture<Void> restartAndWait(final Instance instance, final Timeline timeline) {
+		return restart(instance).thenRun(() -> timeline.record(instance, Timeline.RESTARTED))
+				.thenCompose(v -> waitForInstance(instance.getName()))
+				.thenRun(() -> timeline.record(instance, Timeline.RUNNING));
+	}
+
+	private CompletableFuture<Timeline> batch(
+		final String operation,
+		final Collection<Instance> instances,
+		final Schedule schedule,
+		final BiFunction<Instance, Timeline, CompletableFuture<Void>> operationOnInstance) {
+		final Timeline timeline = new Timeline(operation + " " + instances.size() + " instances " + schedule);
+		final List<CompletableFuture<Void>> operations = new ArrayList<>();
+		CompletableFuture<Void> previous = CompletableFuture.completedFuture(null);
+		int i = 0;
+		for (final Instance instance : instances) {
+			final long pause = i == 0 ? 0L : schedule.getGap();
+			final CompletableFuture<Void> trigger = schedule.isRolling() ? previous.thenCompose(v -> delay(pause))
+					: delay(i * schedule.getGap());
+			final CompletableFuture<Void> done = trigger.thenCompose(v -> {
+				timeline.record(instance, Timeline.REQUESTED);
+				return operationOnInstance.apply(instance, timeline);
+			});
+			operations.add(done);
+			previous = done;
+			i++;
+		}
+		return CompletableFuture.allOf(operations.toArray(new CompletableFuture<?>[0])).thenApply(v -> timeline);
+	}
+
+	private CompletableFuture<Void> delay(final long millis) {
+		if (millis <= 0) {
+			return CompletableFuture.completedFuture(null);
+		}
+		final CompletableFuture<Void> delay = new CompletableFuture<>();
+		scheduler.schedule(() -> delay.complete(null), millis, TimeUnit.MILLISECONDS);
+		return delay;
+	}
+
+	void shutdown() {
+		scheduler.shutdownNow();
+		executor.shutdownNow();
+	}
+
+}
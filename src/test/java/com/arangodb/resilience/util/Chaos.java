@@ -0,0 +1,175 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.util;
+
+import static java.util.concurrent.TimeUnit.MILLISECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.resilience.util.ChaosSchedule.Event;
+
+/**
+ * Executes a {@link ChaosSchedule} through the {@link InstanceManager} and records when every event actually happened,
+ * how long it took and how it ended. The event log written by {@link #write(String)} can be replayed with
+ * {@link ChaosSchedule#replay(Path)}.
+ */
+public class Chaos {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Chaos.class);
+
+	private final InstanceManager im;
+	private final ChaosSchedule schedule;
+	private final List<Executed> log;
+
+	public Chaos(final InstanceManager im, final ChaosSchedule schedule) {
+		super();
+		this.im = im;
+		this.schedule = schedule;
+		log = Collections.synchronizedList(new ArrayList<>());
+	}
+
+	/**
+	 * Runs the schedule on the calling thread. An event is executed at its planned time or, if the previous one took
+	 * longer, right after it.
+	 *
+	 * @param listener
+	 *            called with a description of every event right before it is executed, e.g.
+	 *            {@link Workload#event(String)}
+	 */
+	public void run(final Consumer<String> listener) throws InterruptedException {
+		final long start = System.nanoTime();
+		for (final Event event : schedule.getEvents()) {
+			final long wait = event.getAt() - NANOSECONDS.toMillis(System.nanoTime() - start);
+			if (wait > 0) {
+				MILLISECONDS.sleep(wait);
+			}
+			listener.accept(event.toString());
+			final long begin = System.nanoTime();
+			String outcome = "ok";
+			try {
+				outcome = execute(event);
+			} catch (final RuntimeException e) {
+				outcome = e.getClass().getSimpleName();
+				LOGGER.warn("chaos seed {}: {} failed: {}", schedule.getSeed(), event, e.getMessage());
+			}
+			log.add(new Executed(event, NANOSECONDS.toMillis(begin - start),
+					NANOSECONDS.toMillis(System.nanoTime() - begin), outcome));
+		}
+	}
+
+	private String execute(final Event event) {
+		final Instance instance = new Instance();
+		instance.setName(event.getInstance());
+		switch (event.getAction()) {
+		case KILL:
+			im.kill(instance);
+			return "ok";
+		case SHUTDOWN:
+			im.shutdown(instance);
+			return "ok";
+		case RESTART:
+			im.restart(instance);
+			im.waitForInstance(instance.getName());
+			return "ok";
+		case AGENCY_LEADER_LOSS:
+			final Instance leader = im.getAgencyLeader();
+			im.kill(leader);
+			// the schedule predicts the leader, a different one means the replay diverged
+			return leader.getName().equals(event.getInstance()) ? "ok" : "leader was " + leader.getName();
+		default:
+			throw new IllegalArgumentException(event.getAction().name());
+		}
+	}
+
+	/**
+	 * @return the events executed so far
+	 */
+	public List<Executed> getLog() {
+		synchronized (log) {
+			return new ArrayList<>(log);
+		}
+	}
+
+	/**
+	 * Writes the event log to {@code <name>.csv}.
+	 */
+	public Path write(final String name) {
+		final StringBuilder content = new StringBuilder(
+				"seed,plannedMillis,actualMillis,tookMillis,action,role,index,instance,outcome")
+						.append(System.lineSeparator());
+		for (final Executed executed : getLog()) {
+			final Event event = executed.event;
+			content.append(String.format("%d,%d,%d,%d,%s,%s,%d,%s,%s%n", schedule.getSeed(), event.getAt(),
+				executed.actualMillis, executed.tookMillis, event.getAction(), event.getRole(), event.getIndex(),
+				event.getInstance(), executed.outcome));
+		}
+		return Reports.write(name + ".csv", content.toString());
+	}
+
+	public static class Executed {
+
+		private final Event event;
+		private final long actualMillis;
+		private final long tookMillis;
+		private final String outcome;
+
+		Executed(final Event event, final long actualMillis, final long tookMillis, final String outcome) {
+			super();
+			this.event = event;
+			this.actualMillis = actualMillis;
+			this.tookMillis = tookMillis;
+			this.outcome = outcome;
+		}
+
+		public Event getEvent() {
+			return event;
+		}
+
+		/**
+		 * @return milliseconds after the start when the event was executed
+		 */
+		public long getActualMillis() {
+			return actualMillis;
+		}
+
+		public long getTookMillis() {
+			return tookMillis;
+		}
+
+		/**
+		 * @return {@code ok}, the exception that failed the event or a deviation from the schedule
+		 */
+		public String getOutcome() {
+			return outcome;
+		}
+
+	}
+
+}
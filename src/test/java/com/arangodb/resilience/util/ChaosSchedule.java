@@ -0,0 +1,250 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Random;
+
+/**
+ * A randomized but reproducible sequence of faults: kills, graceful shutdowns, restarts and the loss of the agency
+ * leader, spread over the instances of a deployment. The same seed and the same instances always give the same
+ * schedule. Every stopped instance is restarted at the end of the schedule.
+ * <p>
+ * Events address instances by role and position in the instance manager's list of that role, so a replayed schedule
+ * hits the same instances of a freshly started deployment whose instances carry other names.
+ * <p>
+ * Generating tracks which instances are down, so a schedule never takes down more than the deployment survives: at
+ * least one coordinator, DB-Server and single server keeps running and the agency keeps its quorum.
+ */
+public class ChaosSchedule {
+
+	public static final String AGENT = "agent";
+	public static final String COORDINATOR = "coordinator";
+	public static final String DBSERVER = "dbserver";
+	public static final String SINGLE = "single";
+
+	// share of events restarting a stopped instance instead of stopping another one
+	private static final double RESTART_SHARE = 0.4;
+
+	public enum Action {
+		KILL, SHUTDOWN, RESTART, AGENCY_LEADER_LOSS
+	}
+
+	private final long seed;
+	private final List<Event> events;
+
+	private ChaosSchedule(final long seed, final List<Event> events) {
+		super();
+		this.seed = seed;
+		this.events = Collections.unmodifiableList(events);
+	}
+
+	/**
+	 * @param instances
+	 *            names of the instances by role ({@link #AGENT}, {@link #COORDINATOR}, {@link #DBSERVER},
+	 *            {@link #SINGLE}), in the order the instance manager lists them. The agency leader is assumed to be
+	 *            the first running agent.
+	 * @param duration
+	 *            milliseconds the faults are spread over
+	 * @param meanInterval
+	 *            mean milliseconds between two events, the gaps are exponentially distributed
+	 */
+	public static ChaosSchedule generate(
+		final long seed,
+		final Map<String, List<String>> instances,
+		final long duration,
+		final long meanInterval) {
+		final Random random = new Random(seed);
+		final Map<String, String> roles = new LinkedHashMap<>();
+		instances.forEach((role, names) -> names.forEach(name -> roles.put(name, role)));
+		final List<String> stopped = new ArrayList<>();
+		final List<Event> events = new ArrayList<>();
+		long at = 0;
+		while (true) {
+			at += (long) (-Math.log(1.0 - random.nextDouble()) * meanInterval);
+			if (at >= duration) {
+				break;
+			}
+			final List<String> stoppable = new ArrayList<>();
+			for (final Entry<String, String> instance : roles.entrySet()) {
+				if (!stopped.contains(instance.getKey())
+						&& canStop(instance.getValue(), instances.get(instance.getValue()), stopped)) {
+					stoppable.add(instance.getKey());
+				}
+			}
+			if (!stopped.isEmpty() && (stoppable.isEmpty() || random.nextDouble() < RESTART_SHARE)) {
+				final String instance = stopped.remove(random.nextInt(stopped.size()));
+				events.add(event(at, Action.RESTART, instance, roles, instances));
+				continue;
+			}
+			if (stoppable.isEmpty()) {
+				continue;
+			}
+			final List<Action> actions = new ArrayList<>(Arrays.asList(Action.KILL, Action.SHUTDOWN));
+			final String agencyLeader = instances.getOrDefault(AGENT, Collections.emptyList()).stream()
+					.filter(a -> !stopped.contains(a)).findFirst().orElse(null);
+			if (agencyLeader != null && stoppable.contains(agencyLeader)) {
+				actions.add(Action.AGENCY_LEADER_LOSS);
+			}
+			final Action action = actions.get(random.nextInt(actions.size()));
+			final String instance = action == Action.AGENCY_LEADER_LOSS ? agencyLeader
+					: stoppable.get(random.nextInt(stoppable.size()));
+			stopped.add(instance);
+			events.add(event(at, action, instance, roles, instances));
+		}
+		for (final String instance : stopped) {
+			events.add(event(duration, Action.RESTART, instance, roles, instances));
+		}
+		return new ChaosSchedule(seed, events);
+	}
+
+	private static Event event(
+		final long at,
+		final Action action,
+		final String instance,
+		final Map<String, String> roles,
+		final Map<String, List<String>> instances) {
+		final String role = roles.get(instance);
+		return new Event(at, action, role, instances.get(role).indexOf(instance), instance);
+	}
+
+	private static boolean canStop(final String role, final List<String> instances, final List<String> stopped) {
+		final long down = instances.stream().filter(stopped::contains).count();
+		// the agency needs a majority, every other role one running instance
+		final long maxDown = AGENT.equals(role) ? (instances.size() - 1) / 2 : instances.size() - 1;
+		return down < maxDown;
+	}
+
+	/**
+	 * Reads the schedule back from an event log written by {@link Chaos#write(String)}. The events still name the
+	 * instances of the recorded run, see {@link #on(Map)}.
+	 */
+	public static ChaosSchedule replay(final Path log) {
+		try {
+			final List<String> lines = Files.readAllLines(log, StandardCharsets.UTF_8);
+			final List<String> header = Arrays.asList(lines.get(0).split(","));
+			final List<Event> events = new ArrayList<>();
+			long seed = 0;
+			for (final String line : lines.subList(1, lines.size())) {
+				if (line.trim().isEmpty()) {
+					continue;
+				}
+				final String[] columns = line.split(",", -1);
+				seed = Long.parseLong(columns[header.indexOf("seed")]);
+				events.add(new Event(Long.parseLong(columns[header.indexOf("plannedMillis")]),
+						Action.valueOf(columns[header.indexOf("action")]), columns[header.indexOf("role")],
+						Integer.parseInt(columns[header.indexOf("index")]), columns[header.indexOf("instance")]));
+			}
+			return new ChaosSchedule(seed, events);
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * @param instances
+	 *            names of the instances by role, like for {@link #generate(long, Map, long, long)}
+	 * @return the same schedule on the given instances
+	 */
+	public ChaosSchedule on(final Map<String, List<String>> instances) {
+		final List<Event> resolved = new ArrayList<>();
+		for (final Event event : events) {
+			final List<String> names = instances.getOrDefault(event.role, Collections.emptyList());
+			if (event.index >= names.size()) {
+				throw new IllegalArgumentException(
+						"no " + event.role + " #" + event.index + " in this deployment, replay it on the same topology");
+			}
+			resolved.add(new Event(event.at, event.action, event.role, event.index, names.get(event.index)));
+		}
+		return new ChaosSchedule(seed, resolved);
+	}
+
+	public long getSeed() {
+		return seed;
+	}
+
+	public List<Event> getEvents() {
+		return events;
+	}
+
+	public static class Event {
+
+		private final long at;
+		private final Action action;
+		private final String role;
+		private final int index;
+		private final String instance;
+
+		Event(final long at, final Action action, final String role, final int index, final String instance) {
+			super();
+			this.at = at;
+			this.action = action;
+			this.role = role;
+			this.index = index;
+			this.instance = instance;
+		}
+
+		/**
+		 * @return milliseconds after the start of the schedule
+		 */
+		public long getAt() {
+			return at;
+		}
+
+		public Action getAction() {
+			return action;
+		}
+
+		public String getRole() {
+			return role;
+		}
+
+		/**
+		 * @return position of the instance in the instance manager's list of its role
+		 */
+		public int getIndex() {
+			return index;
+		}
+
+		public String getInstance() {
+			return instance;
+		}
+
+		@Override
+		public String toString() {
+			return action.name().toLowerCase() + " " + instance;
+		}
+
+	}
+
+}
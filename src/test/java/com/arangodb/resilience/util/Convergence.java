@@ -0,0 +1,179 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Predicate;
+
+/**
+ * Polls a probe until a condition holds. The poll interval starts short and grows exponentially up to a maximum, so
+ * fast convergence is detected within milliseconds while slow convergence does not flood the servers.
+ */
+public class Convergence {
+
+	private long initialInterval;
+	private long maxInterval;
+	private double multiplier;
+	private long timeout;
+
+	public Convergence() {
+		super();
+		initialInterval = 10L;
+		maxInterval = 250L;
+		multiplier = 2.0;
+		timeout = 30 * 1000L;
+	}
+
+	/**
+	 * @param initialInterval
+	 *            milliseconds to wait after the first failed probe
+	 */
+	public Convergence initialInterval(final long initialInterval) {
+		this.initialInterval = initialInterval;
+		return this;
+	}
+
+	/**
+	 * @param maxInterval
+	 *            upper bound in milliseconds for the wait between two probes
+	 */
+	public Convergence maxInterval(final long maxInterval) {
+		this.maxInterval = maxInterval;
+		return this;
+	}
+
+	public Convergence multiplier(final double multiplier) {
+		this.multiplier = multiplier;
+		return this;
+	}
+
+	/**
+	 * @param timeout
+	 *            milliseconds after which {@link #await(Callable, Predicate)} gives up
+	 */
+	public Convergence timeout(final long timeout) {
+		this.timeout = timeout;
+		return this;
+	}
+
+	/**
+	 * Calls {@code probe} until its result matches {@code condition} or the timeout expires. A probe throwing an
+	 * exception counts as a failed attempt.
+	 */
+	public <T> Outcome<T> await(final Callable<T> probe, final Predicate<T> condition) throws InterruptedException {
+		final long start = System.nanoTime();
+		final long deadline = start + TimeUnit.MILLISECONDS.toNanos(timeout);
+		long interval = initialInterval;
+		int attempts = 0;
+		int failures = 0;
+		Exception lastError = null;
+		T value = null;
+		while (true) {
+			attempts++;
+			try {
+				value = probe.call();
+				if (condition.test(value)) {
+					return new Outcome<>(true, value, attempts, failures, lastError, start, System.nanoTime());
+				}
+			} catch (final Exception e) {
+				failures++;
+				lastError = e;
+			}
+			final long now = System.nanoTime();
+			if (now >= deadline) {
+				return new Outcome<>(false, value, attempts, failures, lastError, start, now);
+			}
+			Thread.sleep(Math.min(interval, TimeUnit.NANOSECONDS.toMillis(deadline - now) + 1));
+			interval = Math.min(maxInterval, (long) (interval * multiplier));
+		}
+	}
+
+	public static class Outcome<T> {
+
+		private final boolean converged;
+		private final T value;
+		private final int attempts;
+		private final int failures;
+		private final Exception lastError;
+		private final long startedAt;
+		private final long finishedAt;
+
+		Outcome(final boolean converged, final T value, final int attempts, final int failures,
+			final Exception lastError, final long startedAt, final long finishedAt) {
+			super();
+			this.converged = converged;
+			this.value = value;
+			this.attempts = attempts;
+			this.failures = failures;
+			this.lastError = lastError;
+			this.startedAt = startedAt;
+			this.finishedAt = finishedAt;
+		}
+
+		public boolean isConverged() {
+			return converged;
+		}
+
+		/**
+		 * @return the last value returned by the probe
+		 */
+		public T getValue() {
+			return value;
+		}
+
+		public int getAttempts() {
+			return attempts;
+		}
+
+		/**
+		 * @return number of attempts in which the probe threw an exception
+		 */
+		public int getFailures() {
+			return failures;
+		}
+
+		public Exception getLastError() {
+			return lastError;
+		}
+
+		/**
+		 * @return {@link System#nanoTime()} when the condition held for the first time or the timeout expired
+		 */
+		public long getFinishedAt() {
+			return finishedAt;
+		}
+
+		public long elapsed(final TimeUnit unit) {
+			return elapsedSince(startedAt, unit);
+		}
+
+		/**
+		 * @param since
+		 *            a {@link System#nanoTime()} taken before the wait started, e.g. when a fault was injected
+		 */
+		public long elapsedSince(final long since, final TimeUnit unit) {
+			return unit.convert(finishedAt - since, TimeUnit.NANOSECONDS);
+		}
+
+	}
+
+}
@@ -0,0 +1,119 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.util;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Tallies which of a known set of servers answered each request. Every caller thread counts into its own row of
+ * primitive counters, so counting neither allocates nor contends.
+ */
+public class Distribution {
+
+	// longs between two rows, keeps the rows of different threads on different cache lines
+	private static final int PADDING = 8;
+
+	private final String[] keys;
+	private final long[][] counts;
+
+	/**
+	 * @param keys
+	 *            the expected servers, answers from any other server are counted as unknown
+	 * @param threads
+	 *            number of caller threads, each counting with its own index
+	 */
+	public Distribution(final List<String> keys, final int threads) {
+		super();
+		this.keys = keys.toArray(new String[keys.size()]);
+		counts = new long[threads][this.keys.length + 1 + PADDING];
+	}
+
+	public void count(final int thread, final String key) {
+		final long[] row = counts[thread];
+		for (int i = 0; i < keys.length; i++) {
+			if (keys[i].equals(key)) {
+				row[i]++;
+				return;
+			}
+		}
+		row[keys.length]++;
+	}
+
+	/**
+	 * Call after the caller threads are joined.
+	 *
+	 * @return requests per server, in the order of the keys
+	 */
+	public long[] totals() {
+		final long[] totals = new long[keys.length];
+		for (final long[] row : counts) {
+			for (int i = 0; i < keys.length; i++) {
+				totals[i] += row[i];
+			}
+		}
+		return totals;
+	}
+
+	public long unknown() {
+		return Arrays.stream(counts).mapToLong(row -> row[keys.length]).sum();
+	}
+
+	private double mean() {
+		return Arrays.stream(totals()).average().orElse(0);
+	}
+
+	/**
+	 * @return load of the busiest server above a fair share, relative to the fair share
+	 */
+	public double skew() {
+		final double mean = mean();
+		return mean > 0 ? (Arrays.stream(totals()).max().getAsLong() - mean) / mean : 0.0;
+	}
+
+	/**
+	 * @return requests of the busiest server divided by requests of the least busy one, infinite if a server got none
+	 */
+	public double maxMinRatio() {
+		final long[] totals = totals();
+		final long min = Arrays.stream(totals).min().orElse(0);
+		final long max = Arrays.stream(totals).max().orElse(0);
+		return min > 0 ? (double) max / min : Double.POSITIVE_INFINITY;
+	}
+
+	/**
+	 * @return Pearson's chi-square statistic against a uniform distribution. Uniformly random picks yield about
+	 *         {@link #degreesOfFreedom()}, an even rotation {@code 0}.
+	 */
+	public double chiSquare() {
+		final double mean = mean();
+		if (mean == 0) {
+			return 0.0;
+		}
+		return Arrays.stream(totals()).mapToDouble(c -> (c - mean) * (c - mean) / mean).sum();
+	}
+
+	public int degreesOfFreedom() {
+		return keys.length - 1;
+	}
+
+}
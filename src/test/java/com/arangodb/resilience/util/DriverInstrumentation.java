@@ -0,0 +1,401 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.util;
+
+import static java.util.concurrent.TimeUnit.MICROSECONDS;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.ArangoDBException;
+import com.arangodb.internal.ArangoExecutor;
+import com.arangodb.internal.net.AccessType;
+import com.arangodb.internal.net.CommunicationProtocol;
+import com.arangodb.internal.net.Host;
+import com.arangodb.internal.net.HostDescription;
+import com.arangodb.internal.net.HostHandle;
+import com.arangodb.internal.net.HostHandler;
+import com.arangodb.velocypack.VPackBuilder;
+import com.arangodb.velocypack.VPackParser;
+import com.arangodb.velocypack.VPackSlice;
+import com.arangodb.velocypack.ValueType;
+import com.arangodb.velocystream.Request;
+import com.arangodb.velocystream.Response;
+
+/**
+ * Records per host what the driver does for every request: latency, request and response body bytes, errors,
+ * failover hops to another host and redirects the server asked for with {@code X-Arango-Endpoint}.
+ * <p>
+ * {@link #instrument(ArangoDB)} decorates the communication protocol and the host handler inside a built driver
+ * through reflection. The protocol decorator times each request, the host handler decorator sees which host the
+ * driver picked and when it gave up on one. Both only touch a thread local, {@link LongAdder}s and a
+ * {@link ConcurrentHistogram}, so the recording neither locks nor contends between caller threads.
+ */
+public class DriverInstrumentation {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(DriverInstrumentation.class);
+	private static final VPackParser PARSER = new VPackParser.Builder().build();
+	// requests failing before the driver picked a host
+	private static final String UNKNOWN_HOST = "unknown";
+
+	// the request the current thread executes, nested when a host list refresh runs inside a request
+	private static final ThreadLocal<Call> CURRENT = new ThreadLocal<>();
+
+	private final String name;
+	private final Map<String, HostStats> hosts = new ConcurrentHashMap<>();
+	private final LongAdder drivers = new LongAdder();
+	private final LongAdder uninstrumented = new LongAdder();
+
+	public DriverInstrumentation(final String name) {
+		super();
+		this.name = name;
+	}
+
+	/**
+	 * Decorates the driver in place. A driver whose internals do not look as expected is returned unchanged and
+	 * counted as uninstrumented in the summary.
+	 *
+	 * @return the given driver
+	 */
+	public ArangoDB instrument(final ArangoDB arango) {
+		try {
+			final Object executor = read(arango, field(arango.getClass(), ArangoExecutor.class));
+			final Field protocolField = field(executor.getClass(), CommunicationProtocol.class);
+			final CommunicationProtocol protocol = (CommunicationProtocol) read(executor, protocolField);
+			decorateHostHandler(protocol);
+			write(executor, protocolField, new InstrumentedProtocol(protocol));
+			drivers.increment();
+		} catch (final ReflectiveOperationException | RuntimeException e) {
+			uninstrumented.increment();
+			LOGGER.warn("Could not instrument driver: {}", e.toString());
+		}
+		return arango;
+	}
+
+	/**
+	 * The host handler sits inside the communication the protocol wraps, {@code VstProtocol.communication} or
+	 * {@code HttpProtocol.httpCommunitaction}.
+	 */
+	private void decorateHostHandler(final CommunicationProtocol protocol) throws ReflectiveOperationException {
+		for (Class<?> type = protocol.getClass(); type != null; type = type.getSuperclass()) {
+			for (final Field candidate : type.getDeclaredFields()) {
+				if (Modifier.isStatic(candidate.getModifiers()) || candidate.getType().isPrimitive()) {
+					continue;
+				}
+				final Object communication = read(protocol, candidate);
+				if (communication == null) {
+					continue;
+				}
+				final Field handlerField = field(communication.getClass(), HostHandler.class);
+				if (handlerField != null) {
+					final HostHandler handler = (HostHandler) read(communication, handlerField);
+					if (!(handler instanceof InstrumentedHostHandler)) {
+						write(communication, handlerField, new InstrumentedHostHandler(handler));
+					}
+					return;
+				}
+			}
+		}
+		throw new NoSuchFieldException("host handler of " + protocol.getClass().getName());
+	}
+
+	private static Field field(final Class<?> owner, final Class<?> type) {
+		for (Class<?> current = owner; current != null; current = current.getSuperclass()) {
+			for (final Field field : current.getDeclaredFields()) {
+				if (!Modifier.isStatic(field.getModifiers()) && type.isAssignableFrom(field.getType())) {
+					return field;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static Object read(final Object owner, final Field field) throws ReflectiveOperationException {
+		if (field == null) {
+			throw new NoSuchFieldException("in " + owner.getClass().getName());
+		}
+		field.setAccessible(true);
+		return field.get(owner);
+	}
+
+	private static void write(final Object owner, final Field field, final Object value)
+			throws ReflectiveOperationException {
+		field.setAccessible(true);
+		field.set(owner, value);
+	}
+
+	private HostStats stats(final String host) {
+		return hosts.computeIfAbsent(host, h -> new HostStats());
+	}
+
+	/**
+	 * @return requests of all instrumented drivers so far, failed ones included
+	 */
+	public long requests() {
+		return hosts.values().stream().mapToLong(h -> h.requests.sum()).sum();
+	}
+
+	/**
+	 * @return failed requests of all instrumented drivers so far
+	 */
+	public long errors() {
+		return hosts.values().stream().flatMap(h -> h.errors.values().stream()).mapToLong(LongAdder::sum).sum();
+	}
+
+	/**
+	 * @return latencies of the successful requests of all instrumented drivers so far, in microseconds
+	 */
+	public Histogram latency() {
+		final Histogram latency = new Histogram(3);
+		hosts.values().forEach(h -> latency.add(h.latency));
+		return latency;
+	}
+
+	/**
+	 * @return {@code X-Arango-Endpoint} redirects the drivers followed so far
+	 */
+	public long redirects() {
+		return hosts.values().stream().mapToLong(h -> h.redirects.sum()).sum();
+	}
+
+	/**
+	 * @return times the drivers gave up on a host and moved on to the next one so far
+	 */
+	public long failoverHops() {
+		return hosts.values().stream().mapToLong(h -> h.failoverHops.sum()).sum();
+	}
+
+	private static long size(final VPackSlice body) {
+		return body != null ? body.getByteSize() : 0L;
+	}
+
+	/**
+	 * @return the summary as JSON
+	 */
+	public String toJson() {
+		final VPackBuilder builder = new VPackBuilder().add(ValueType.OBJECT).add("name", name)
+				.add("drivers", drivers.sum()).add("uninstrumented", uninstrumented.sum());
+		final HostStats total = new HostStats();
+		builder.add("hosts", ValueType.OBJECT);
+		for (final Entry<String, HostStats> entry : new TreeMap<>(hosts).entrySet()) {
+			builder.add(entry.getKey(), ValueType.OBJECT);
+			entry.getValue().addTo(builder);
+			builder.close();
+			total.add(entry.getValue());
+		}
+		builder.close();
+		builder.add("total", ValueType.OBJECT);
+		total.addTo(builder);
+		builder.close();
+		return PARSER.toJson(builder.close().slice(), true);
+	}
+
+	/**
+	 * Writes the summary to {@code instrumentation-<name>.json}.
+	 */
+	public Path write() {
+		return Reports.write("instrumentation-" + name + ".json", toJson());
+	}
+
+	private static class Call {
+
+		private final Call outer;
+		private String host = UNKNOWN_HOST;
+		private boolean redirected;
+
+		Call(final Call outer) {
+			super();
+			this.outer = outer;
+		}
+
+	}
+
+	private class InstrumentedProtocol implements CommunicationProtocol {
+
+		private final CommunicationProtocol delegate;
+
+		InstrumentedProtocol(final CommunicationProtocol delegate) {
+			super();
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Response execute(final Request request, final HostHandle hostHandle) throws ArangoDBException {
+			final Call call = new Call(CURRENT.get());
+			CURRENT.set(call);
+			final long start = System.nanoTime();
+			try {
+				final Response response = delegate.execute(request, hostHandle);
+				final HostStats stats = stats(call.host);
+				stats.latency.recordValue(MICROSECONDS.convert(System.nanoTime() - start, NANOSECONDS));
+				stats.requests.increment();
+				stats.bytesSent.add(size(request.getBody()));
+				stats.bytesReceived.add(size(response.getBody()));
+				return response;
+			} catch (final RuntimeException e) {
+				final HostStats stats = stats(call.host);
+				stats.requests.increment();
+				stats.bytesSent.add(size(request.getBody()));
+				stats.errors.computeIfAbsent(e.getClass().getSimpleName(), k -> new LongAdder()).increment();
+				throw e;
+			} finally {
+				if (call.outer != null) {
+					CURRENT.set(call.outer);
+				} else {
+					CURRENT.remove();
+				}
+			}
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+
+	}
+
+	private class InstrumentedHostHandler implements HostHandler {
+
+		private final HostHandler delegate;
+
+		InstrumentedHostHandler(final HostHandler delegate) {
+			super();
+			this.delegate = delegate;
+		}
+
+		@Override
+		public Host get(final HostHandle hostHandle, final AccessType accessType) {
+			final Host host = delegate.get(hostHandle, accessType);
+			final Call call = CURRENT.get();
+			if (call != null && host != null) {
+				final HostDescription description = host.getDescription();
+				call.host = description.getHost() + ":" + description.getPort();
+			}
+			return host;
+		}
+
+		@Override
+		public void fail() {
+			final Call call = CURRENT.get();
+			if (call != null) {
+				// the driver fails the host it was redirected from as well, that is no hop of its own
+				if (call.redirected) {
+					call.redirected = false;
+				} else {
+					stats(call.host).failoverHops.increment();
+				}
+			}
+			delegate.fail();
+		}
+
+		@Override
+		public void closeCurrentOnError() {
+			final Call call = CURRENT.get();
+			if (call != null) {
+				call.redirected = true;
+				stats(call.host).redirects.increment();
+			}
+			delegate.closeCurrentOnError();
+		}
+
+		@Override
+		public void success() {
+			delegate.success();
+		}
+
+		@Override
+		public void reset() {
+			delegate.reset();
+		}
+
+		@Override
+		public void confirm() {
+			delegate.confirm();
+		}
+
+		@Override
+		public void close() throws IOException {
+			delegate.close();
+		}
+
+	}
+
+	private static class HostStats {
+
+		private final Histogram latency = new ConcurrentHistogram(3);
+		private final LongAdder requests = new LongAdder();
+		private final LongAdder bytesSent = new LongAdder();
+		private final LongAdder bytesReceived = new LongAdder();
+		private final LongAdder failoverHops = new LongAdder();
+		private final LongAdder redirects = new LongAdder();
+		private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+
+		void add(final HostStats other) {
+			latency.add(other.latency);
+			requests.add(other.requests.sum());
+			bytesSent.add(other.bytesSent.sum());
+			bytesReceived.add(other.bytesReceived.sum());
+			failoverHops.add(other.failoverHops.sum());
+			redirects.add(other.redirects.sum());
+			other.errors.forEach((type, count) -> errors.computeIfAbsent(type, k -> new LongAdder()).add(count.sum()));
+		}
+
+		/**
+		 * Adds the fields of this host to the open object of the builder, latencies in milliseconds.
+		 */
+		void addTo(final VPackBuilder builder) {
+			builder.add("requests", requests.sum());
+			builder.add("errors", errors.values().stream().mapToLong(LongAdder::sum).sum());
+			builder.add("failoverHops", failoverHops.sum());
+			builder.add("redirects", redirects.sum());
+			builder.add("bytesSent", bytesSent.sum());
+			builder.add("bytesReceived", bytesReceived.sum());
+			builder.add("latencyMs", ValueType.OBJECT);
+			builder.add("p50", latency.getValueAtPercentile(50) / 1000.0);
+			builder.add("p99", latency.getValueAtPercentile(99) / 1000.0);
+			builder.add("max", latency.getMaxValue() / 1000.0);
+			builder.add("mean", latency.getMean() / 1000.0);
+			builder.close();
+			builder.add("errorTypes", ValueType.OBJECT);
+			for (final Entry<String, LongAdder> error : new TreeMap<>(errors).entrySet()) {
+				builder.add(error.getKey(), error.getValue().sum());
+			}
+			builder.close();
+		}
+
+	}
+
+}
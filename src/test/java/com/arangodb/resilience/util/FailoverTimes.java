@@ -0,0 +1,58 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Records the time from a fault to the first clean response in {@code failover-times.csv}.
+ */
+public abstract class FailoverTimes {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FailoverTimes.class);
+	private static final String REPORT = "failover-times.csv";
+
+	private FailoverTimes() {
+		super();
+	}
+
+	/**
+	 * @param faultAt
+	 *            {@link System#nanoTime()} taken right before the fault was injected
+	 * @return the failover time in milliseconds
+	 */
+	public static long record(final String scenario, final Convergence.Outcome<?> outcome, final long faultAt) {
+		final long millis = outcome.elapsedSince(faultAt, TimeUnit.MILLISECONDS);
+		if (outcome.isConverged()) {
+			FlightRecording.recovered(scenario);
+		}
+		LOGGER.info(String.format("%s: %s after %s ms (%s probes, %s failed)", scenario,
+			outcome.isConverged() ? "recovered" : "not recovered", millis, outcome.getAttempts(),
+			outcome.getFailures()));
+		Reports.append(REPORT, "scenario,converged,failoverMillis,probes,failedProbes", String.format("%s,%s,%s,%s,%s",
+			scenario, outcome.isConverged(), millis, outcome.getAttempts(), outcome.getFailures()));
+		return millis;
+	}
+
+}
@@ -0,0 +1,187 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import java.util.Collection;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.internal.net.HostDescription;
+
+/**
+ * Keeps the topology started for one test alive and leases it to the next test asking for the same shape. Between
+ * leases only the instances a test killed or shut down are restarted.
+ *
+ * <p>
+ * Reuse can be disabled with {@code -Daim.fixtures.reuse=false}, which restores the old behaviour of a fresh topology
+ * per test.
+ * </p>
+ */
+public class FixturePool {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FixturePool.class);
+
+	private static FixturePool instance;
+
+	private final InstanceManager im;
+	private final boolean reuse;
+	private String topology;
+	private HostDescription endpoint;
+	private long bootTime;
+	private boolean leased;
+
+	private int boots;
+	private int reuses;
+	private int restartedInstances;
+	private long totalBootTime;
+	private long totalResetTime;
+	private long savedTime;
+
+	public FixturePool(final InstanceManager im, final boolean reuse) {
+		super();
+		this.im = im;
+		this.reuse = reuse;
+	}
+
+	/**
+	 * @return the pool shared by all test classes of this JVM. It is cleaned up when the JVM exits.
+	 */
+	public static synchronized FixturePool instance() {
+		if (instance == null) {
+			final FixturePool pool = new FixturePool(new InstanceManager(),
+					Boolean.valueOf(System.getProperty("aim.fixtures.reuse", "true")));
+			Runtime.getRuntime().addShutdownHook(new Thread(pool::close, "fixture-pool-shutdown"));
+			instance = pool;
+		}
+		return instance;
+	}
+
+	public InstanceManager getInstanceManager() {
+		return im;
+	}
+
+	/**
+	 * @return endpoint of the first coordinator
+	 */
+	public synchronized HostDescription leaseCluster(
+		final int numAgents,
+		final int numCoordinators,
+		final int numDbServers) {
+		lease("cluster(" + numAgents + "," + numCoordinators + "," + numDbServers + ")",
+			() -> endpoint = im.startCluster(numAgents, numCoordinators, numDbServers));
+		return endpoint;
+	}
+
+	/**
+	 * Leases an agency with {@code numSingleServers} single servers in active failover mode.
+	 */
+	public synchronized void leaseActiveFailover(final int numSingleServers) {
+		lease("activeFailover(" + numSingleServers + ")", () -> {
+			endpoint = null;
+			// agency and single servers boot side by side, whichever finishes first
+			CompletableFuture.allOf(im.async().startAgency(), im.async().startSingleServer(numSingleServers)).join();
+			im.waitForAllInstances();
+		});
+	}
+
+	private void lease(final String topology, final Runnable boot) {
+		if (leased) {
+			throw new IllegalStateException(String.format("Fixture %s is still leased", this.topology));
+		}
+		if (topology.equals(this.topology)) {
+			reset();
+			reuses++;
+			savedTime += bootTime;
+		} else {
+			if (this.topology != null) {
+				im.cleanup();
+			}
+			final long start = System.nanoTime();
+			boot.run();
+			bootTime = System.nanoTime() - start;
+			totalBootTime += bootTime;
+			boots++;
+			this.topology = topology;
+		}
+		leased = true;
+	}
+
+	/**
+	 * Returns the leased topology to the pool. Without reuse the topology is destroyed right away.
+	 */
+	public synchronized void release() {
+		leased = false;
+		if (!reuse) {
+			im.cleanup();
+			topology = null;
+		}
+	}
+
+	/**
+	 * Returns the leased topology and destroys it, for tests which changed its shape, e.g. by adding instances.
+	 */
+	public synchronized void discard() {
+		leased = false;
+		im.cleanup();
+		topology = null;
+	}
+
+	private void reset() {
+		final long start = System.nanoTime();
+		final Collection<Instance> stopped = im.stoppedInstances();
+		im.async().restart(stopped).join();
+		restartedInstances += stopped.size();
+		im.waitForAllInstances();
+		final long resetTime = System.nanoTime() - start;
+		totalResetTime += resetTime;
+		savedTime -= resetTime;
+	}
+
+	public synchronized String report() {
+		return String.format(
+			"fixtures: %s boots (%s ms), %s reuses, %s restarted instances (%s ms reset), %s ms startup time saved",
+			boots, millis(totalBootTime), reuses, restartedInstances, millis(totalResetTime), millis(savedTime));
+	}
+
+	private static long millis(final long nanos) {
+		return TimeUnit.NANOSECONDS.toMillis(nanos);
+	}
+
+	/**
+	 * Destroys the pooled topology and appends the report to {@code fixture-pool.txt}, one line per test JVM.
+	 */
+	public synchronized void close() {
+		final String report = report();
+		LOGGER.info(report);
+		final String namespace = System.getProperty("aim.namespace");
+		Reports.append("fixture-pool.txt", "topology reuse per test JVM",
+			namespace != null ? "namespace " + namespace + " " + report : report);
+		try {
+			im.cleanup();
+		} finally {
+			im.shutdown();
+		}
+	}
+
+}
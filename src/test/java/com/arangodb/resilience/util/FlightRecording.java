@@ -0,0 +1,92 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import org.junit.rules.TestRule;
+import org.junit.runner.Description;
+import org.junit.runners.model.Statement;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs every test under a JDK Flight Recorder session when enabled with {@code -Dresilience.jfr=true}. Faults
+ * injected through the {@link InstanceManager} or marked in a {@link Workload} are committed as
+ * {@code com.arangodb.resilience.Fault} events, the end of a recovery as {@code com.arangodb.resilience.Recovered}.
+ * After the test the recording is written to {@code jfr-<test>.jfr} and its recovery window, from the first fault to
+ * the last recovery or the end of the test, is summarized in {@code jfr-<test>.txt}: top allocation sites, lock
+ * contention, socket reads and writes per endpoint and the states of the threads. Sites are reported with the
+ * innermost frame of the driver ({@code com.arangodb} outside of this project), so the time can be attributed to a
+ * code path of the driver.
+ * <p>
+ * The recorder is loaded by name, it is only on the classpath of builds with the {@code jfr} profile, which is active
+ * on Java 11 and later. Without it the rule and the events are no-ops.
+ */
+public class FlightRecording implements TestRule {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(FlightRecording.class);
+
+	private static final String RECORDER_CLASS = "com.arangodb.resilience.util.JfrRecorder";
+	private static final Recorder RECORDER = Boolean.getBoolean("resilience.jfr") ? load() : null;
+
+	/**
+	 * Commits a fault event to the running recordings.
+	 */
+	public static void fault(final String description) {
+		if (RECORDER != null) {
+			RECORDER.fault(description);
+		}
+	}
+
+	/**
+	 * Commits a recovery event to the running recordings, it ends the recovery window unless a later one follows.
+	 */
+	public static void recovered(final String description) {
+		if (RECORDER != null) {
+			RECORDER.recovered(description);
+		}
+	}
+
+	@Override
+	public Statement apply(final Statement base, final Description description) {
+		return RECORDER != null ? RECORDER.apply(base, description) : base;
+	}
+
+	private static Recorder load() {
+		try {
+			return Class.forName(RECORDER_CLASS).asSubclass(Recorder.class).getDeclaredConstructor().newInstance();
+		} catch (final ReflectiveOperationException | LinkageError e) {
+			LOGGER.warn("-Dresilience.jfr=true needs a build with the jfr profile on Java 11 or later, not recording",
+				e);
+			return null;
+		}
+	}
+
+	interface Recorder {
+
+		void fault(String description);
+
+		void recovered(String description);
+
+		Statement apply(Statement base, Description description);
+
+	}
+
+}
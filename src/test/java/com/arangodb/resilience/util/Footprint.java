@@ -0,0 +1,149 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.util;
+
+import java.lang.management.BufferPoolMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.OperatingSystemMXBean;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.sun.management.UnixOperatingSystemMXBean;
+
+/**
+ * Samples the resource footprint of the JVM through JMX: open file descriptors, live threads, direct buffer memory and
+ * the heap left after a full GC. A metric counts as leaking when it grows monotonically from sample to sample, in both
+ * halves of the run and by more than its noise level overall; a single step, e.g. connections opened by another
+ * thread right before the last sample, does not. The JVM hosts the embedded servers as well, so their footprint is
+ * part of every sample.
+ */
+public class Footprint {
+
+	public enum Metric {
+
+		FILE_DESCRIPTORS(4), THREADS(2), DIRECT_BUFFER_BYTES(256 * 1024), HEAP_AFTER_GC_BYTES(2 * 1024 * 1024);
+
+		// growth below this is not reported as a leak
+		private final long noise;
+
+		private Metric(final long noise) {
+			this.noise = noise;
+		}
+
+		public long getNoise() {
+			return noise;
+		}
+
+	}
+
+	private final List<Long> cycles;
+	private final List<Map<Metric, Long>> samples;
+
+	public Footprint() {
+		super();
+		cycles = new ArrayList<>();
+		samples = new ArrayList<>();
+	}
+
+	/**
+	 * Runs a full GC and takes a sample.
+	 *
+	 * @param cycle
+	 *            number of cycles run so far
+	 */
+	public void sample(final long cycle) {
+		System.gc();
+		final Map<Metric, Long> sample = new EnumMap<>(Metric.class);
+		final OperatingSystemMXBean os = ManagementFactory.getOperatingSystemMXBean();
+		sample.put(Metric.FILE_DESCRIPTORS,
+			os instanceof UnixOperatingSystemMXBean ? ((UnixOperatingSystemMXBean) os).getOpenFileDescriptorCount()
+					: -1);
+		sample.put(Metric.THREADS, (long) ManagementFactory.getThreadMXBean().getThreadCount());
+		sample.put(Metric.DIRECT_BUFFER_BYTES,
+			ManagementFactory.getPlatformMXBeans(BufferPoolMXBean.class).stream()
+					.filter(pool -> "direct".equals(pool.getName())).mapToLong(BufferPoolMXBean::getMemoryUsed).sum());
+		sample.put(Metric.HEAP_AFTER_GC_BYTES, ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed());
+		cycles.add(cycle);
+		samples.add(sample);
+	}
+
+	/**
+	 * @param warmup
+	 *            samples left out at the start, pools and caches fill up there
+	 * @return the metrics never shrinking after the warmup, growing in both halves of the remaining samples and by
+	 *         more than their noise level
+	 */
+	public List<Metric> growing(final int warmup) {
+		final List<Map<Metric, Long>> considered = samples.subList(Math.min(warmup, samples.size()), samples.size());
+		final List<Metric> growing = new ArrayList<>();
+		if (considered.size() < 3) {
+			return growing;
+		}
+		for (final Metric metric : Metric.values()) {
+			boolean monotonic = true;
+			for (int i = 1; i < considered.size() && monotonic; i++) {
+				monotonic = considered.get(i).get(metric) >= considered.get(i - 1).get(metric);
+			}
+			final long first = considered.get(0).get(metric);
+			final long middle = considered.get(considered.size() / 2).get(metric);
+			final long last = considered.get(considered.size() - 1).get(metric);
+			if (monotonic && middle > first && last > middle && growth(metric, warmup) > metric.noise) {
+				growing.add(metric);
+			}
+		}
+		return growing;
+	}
+
+	/**
+	 * @return growth of the metric from the first sample after the warmup to the last one
+	 */
+	public long growth(final Metric metric, final int warmup) {
+		if (samples.size() <= warmup) {
+			return 0;
+		}
+		return samples.get(samples.size() - 1).get(metric) - samples.get(warmup).get(metric);
+	}
+
+	/**
+	 * Writes all samples to {@code <name>.csv}.
+	 */
+	public Path write(final String name) {
+		final StringBuilder content = new StringBuilder("cycle,")
+				.append(Arrays.stream(Metric.values()).map(m -> m.name().toLowerCase())
+						.collect(Collectors.joining(",")))
+				.append(System.lineSeparator());
+		for (int i = 0; i < samples.size(); i++) {
+			content.append(cycles.get(i));
+			for (final Metric metric : Metric.values()) {
+				content.append(',').append(samples.get(i).get(metric));
+			}
+			content.append(System.lineSeparator());
+		}
+		return Reports.write(name + ".csv", content.toString());
+	}
+
+}
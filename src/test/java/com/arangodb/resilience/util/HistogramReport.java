@@ -0,0 +1,94 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import java.nio.file.Path;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+
+import org.HdrHistogram.Histogram;
+
+/**
+ * A named set of HdrHistograms rendered as one p50/p99/max table.
+ */
+public class HistogramReport {
+
+	private final String title;
+	private final Map<String, Metric> metrics;
+
+	public HistogramReport(final String title) {
+		super();
+		this.title = title;
+		metrics = new LinkedHashMap<>();
+	}
+
+	/**
+	 * @param unit
+	 *            unit the values are reported in
+	 * @param scale
+	 *            divisor applied to recorded values when reporting, e.g. {@code 1000} to record microseconds and report
+	 *            milliseconds
+	 * @return the histogram of the metric, created on first use
+	 */
+	public synchronized Histogram histogram(final String metric, final String unit, final double scale) {
+		return metrics.computeIfAbsent(metric, m -> new Metric(unit, scale)).histogram;
+	}
+
+	public Histogram histogram(final String metric, final String unit) {
+		return histogram(metric, unit, 1.0);
+	}
+
+	public synchronized String format() {
+		final StringBuilder report = new StringBuilder(title).append(System.lineSeparator());
+		report.append(String.format("%-28s %-6s %8s %12s %12s %12s %12s%n", "metric", "unit", "count", "p50", "p99",
+			"max", "mean"));
+		for (final Entry<String, Metric> entry : metrics.entrySet()) {
+			final Metric metric = entry.getValue();
+			final Histogram h = metric.histogram;
+			report.append(String.format("%-28s %-6s %8d %12.2f %12.2f %12.2f %12.2f%n", entry.getKey(), metric.unit,
+				h.getTotalCount(), h.getValueAtPercentile(50) / metric.scale,
+				h.getValueAtPercentile(99) / metric.scale, h.getMaxValue() / metric.scale,
+				h.getMean() / metric.scale));
+		}
+		return report.toString();
+	}
+
+	public Path write(final String name) {
+		return Reports.write(name, format());
+	}
+
+	private static class Metric {
+
+		private final String unit;
+		private final double scale;
+		private final Histogram histogram;
+
+		Metric(final String unit, final double scale) {
+			super();
+			this.unit = unit;
+			this.scale = scale;
+			histogram = new Histogram(3);
+		}
+
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+
+import com.arangodb.ArangoDB;
+import com.arangodb.internal.net.ExtendedHostResolver;
+import com.arangodb.internal.net.Host;
+
+/**
+ * Triggers the host list refresh of a driver built with {@code acquireHostList(true)} on demand. The driver caches
+ * the list of {@code /_api/cluster/endpoints} for an hour and refreshes it inline in the first request after that;
+ * this expires the cache through reflection and runs the same refresh on the calling thread, concurrently to the
+ * requests of other threads, like the driver would.
+ */
+public class HostListRefresher {
+
+	private static final String INTERNAL_PACKAGE = "com.arangodb";
+
+	private final ExtendedHostResolver resolver;
+	private final Field lastUpdate;
+
+	public HostListRefresher(final ArangoDB arango) {
+		super();
+		resolver = find(arango);
+		if (resolver == null) {
+			throw new IllegalArgumentException("driver does not acquire its host list");
+		}
+		try {
+			lastUpdate = ExtendedHostResolver.class.getDeclaredField("lastUpdate");
+			lastUpdate.setAccessible(true);
+		} catch (final NoSuchFieldException e) {
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Walks the object graph of the driver to its {@link ExtendedHostResolver}.
+	 */
+	private static ExtendedHostResolver find(final Object root) {
+		final Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+		final Queue<Object> queue = new ArrayDeque<>();
+		queue.add(root);
+		while (!queue.isEmpty()) {
+			final Object current = queue.poll();
+			if (current instanceof ExtendedHostResolver) {
+				return (ExtendedHostResolver) current;
+			}
+			if (!visited.add(current)) {
+				continue;
+			}
+			for (Class<?> type = current.getClass(); type != null; type = type.getSuperclass()) {
+				for (final Field field : type.getDeclaredFields()) {
+					if (Modifier.isStatic(field.getModifiers()) || field.getType().isPrimitive()) {
+						continue;
+					}
+					try {
+						field.setAccessible(true);
+						final Object value = field.get(current);
+						if (value != null && value.getClass().getName().startsWith(INTERNAL_PACKAGE)) {
+							queue.add(value);
+						}
+					} catch (final IllegalAccessException | RuntimeException e) {
+						// not part of the driver's own object graph
+					}
+				}
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * Expires the cached host list and acquires it again.
+	 *
+	 * @return nanoseconds the refresh took
+	 */
+	public long refresh() {
+		try {
+			lastUpdate.setLong(resolver, 0L);
+		} catch (final IllegalAccessException e) {
+			throw new IllegalStateException(e);
+		}
+		final long start = System.nanoTime();
+		resolver.resolve(false, false);
+		return System.nanoTime() - start;
+	}
+
+	/**
+	 * @return the host list the driver currently balances over, without triggering a refresh
+	 */
+	public List<Host> hosts() {
+		return resolver.resolve(true, false);
+	}
+
+}
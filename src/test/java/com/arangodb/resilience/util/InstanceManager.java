@@ -25,12 +25,16 @@ import static com.arangodb.resilience.util.EndpointUtils.port;
 
 import java.io.IOException;
 import java.util.Collection;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import com.arangodb.ArangoDB;
 import com.arangodb.Protocol;
 import com.arangodb.internal.net.HostDescription;
+import com.arangodb.resilience.embedded.EmbeddedInstanceManager;
 import com.arangodb.velocypack.Type;
 import com.arangodb.velocypack.VPack;
 import com.arangodb.velocypack.VPackBuilder;
@@ -46,22 +50,54 @@ import com.arangodb.velocystream.Response;
  */
 public class InstanceManager {
 
+	private static final String MODE_EMBEDDED = "embedded";
+	private static final int MAX_CONNECTIONS = 32;
+
 	private final ArangoDB connection;
 	private final VPack vp;
+	private final EmbeddedInstanceManager embedded;
+	private final Map<String, Instance> stopped;
+	private AsyncInstanceManager async;
 
+	/**
+	 * Connects to the instance manager configured in {@code aim.properties}. With {@code aim.mode=embedded} an
+	 * in-JVM {@link EmbeddedInstanceManager} backed by simulated servers is started instead of using the remote
+	 * {@code aim.endpoint}. Every property can be overridden with a system property of the same name.
+	 */
 	public InstanceManager() {
 		super();
 		try {
 			final Properties properties = new Properties();
 			properties.load(InstanceManager.class.getResourceAsStream("/aim.properties"));
-			final String endpoint = properties.getProperty("aim.endpoint", "127.0.0.1:9000");
+			properties.putAll(System.getProperties());
+			final String endpoint;
+			if (MODE_EMBEDDED.equals(properties.getProperty("aim.mode", "remote"))) {
+				// every namespace (e.g. Surefire fork) gets its own port range
+				final int basePort = Integer.valueOf(properties.getProperty("aim.embedded.basePort", "0"));
+				final int ports = Integer.valueOf(properties.getProperty("aim.embedded.portsPerNamespace", "100"));
+				final String namespace = properties.getProperty("aim.namespace", "");
+				final int firstPort = basePort > 0
+						? basePort + (namespace.isEmpty() ? 0 : Integer.valueOf(namespace)) * ports
+						: 0;
+				embedded = new EmbeddedInstanceManager(properties.getProperty("aim.embedded.host", "127.0.0.1"),
+						Long.valueOf(properties.getProperty("aim.embedded.failoverDelay", "200")),
+						Long.valueOf(properties.getProperty("aim.embedded.settleDelay", "200")), firstPort,
+						firstPort > 0 ? firstPort + ports - 1 : 0,
+						Integer.valueOf(properties.getProperty("aim.embedded.serverThreads", "0")));
+				endpoint = embedded.getEndpoint();
+			} else {
+				embedded = null;
+				endpoint = properties.getProperty("aim.endpoint", "127.0.0.1:9000");
+			}
 			final HostDescription host = new HostDescription(host(endpoint), port(endpoint));
+			// enough connections for the calls of the async view to run concurrently
 			connection = new ArangoDB.Builder().useProtocol(Protocol.HTTP_JSON).host(host.getHost(), host.getPort())
-					.user(null).build();
+					.maxConnections(MAX_CONNECTIONS).user(null).build();
 		} catch (final IOException e) {
 			throw new RuntimeException(e);
 		}
 		vp = new VPack.Builder().build();
+		stopped = new ConcurrentHashMap<>();
 	}
 
 	private VPackSlice execute(final RequestType requestType, final String path) {
@@ -88,6 +124,15 @@ public class InstanceManager {
 		return new HostDescription(host(endpoint), port(endpoint));
 	}
 
+	/**
+	 * Adds coordinators to the running cluster.
+	 */
+	public Collection<Instance> addCoordinators(final int num) {
+		final Response response = connection
+				.execute(new Request(null, RequestType.POST, "/coordinator").putQueryParam("num", num));
+		return deserialize(response.getBody());
+	}
+
 	public Collection<Instance> startAgency() {
 		return deserialize(execute(RequestType.POST, "/agency"));
 	}
@@ -106,6 +151,21 @@ public class InstanceManager {
 		return deserialize(execute(RequestType.GET, "/instance/single"));
 	}
 
+	public Collection<Instance> agents() {
+		return deserialize(execute(RequestType.GET, "/instance/agents"));
+	}
+
+	public Collection<Instance> dbServers() {
+		return deserialize(execute(RequestType.GET, "/instance/dbservers"));
+	}
+
+	/**
+	 * @return the agent currently leading the agency
+	 */
+	public Instance getAgencyLeader() {
+		return vp.deserialize(execute(RequestType.GET, "/agency/leader"), Instance.class);
+	}
+
 	public void waitForAllInstances() {
 		execute(RequestType.HEAD, "/instance");
 	}
@@ -148,20 +208,75 @@ public class InstanceManager {
 	}
 
 	public void shutdown(final Instance instance, final boolean kill) {
+		FlightRecording.fault((kill ? "kill " : "shutdown ") + instance.getName());
 		connection.execute(
 			new Request(null, RequestType.DELETE, "/instance/" + instance.getName()).putQueryParam("kill", kill));
+		stopped.put(instance.getName(), instance);
 	}
 
 	public void restart(final Instance instance) {
+		FlightRecording.fault("restart " + instance.getName());
 		execute(RequestType.POST, "/instance/" + instance.getName());
+		stopped.remove(instance.getName());
+	}
+
+	/**
+	 * Shuts down or kills the given instances according to the schedule and blocks until all are stopped.
+	 */
+	public Timeline shutdown(final Collection<Instance> instances, final boolean kill, final Schedule schedule) {
+		return async().shutdown(instances, kill, schedule).join();
+	}
+
+	/**
+	 * Restarts the given instances according to the schedule and blocks until all are running.
+	 */
+	public Timeline restart(final Collection<Instance> instances, final Schedule schedule) {
+		return async().restart(instances, schedule).join();
+	}
+
+	/**
+	 * Shuts down or kills and restarts the given instances according to the schedule and blocks until all are running
+	 * again.
+	 */
+	public Timeline shutdownAndRestart(
+		final Collection<Instance> instances,
+		final boolean kill,
+		final Schedule schedule) {
+		return async().shutdownAndRestart(instances, kill, schedule).join();
+	}
+
+	/**
+	 * @return instances killed or shut down through this manager and not restarted since
+	 */
+	public Collection<Instance> stoppedInstances() {
+		return new ArrayList<>(stopped.values());
 	}
 
 	public void cleanup() {
 		execute(RequestType.DELETE, "/");
+		stopped.clear();
+	}
+
+	/**
+	 * @return a view of this manager whose calls return futures instead of blocking
+	 */
+	public synchronized AsyncInstanceManager async() {
+		if (async == null) {
+			async = new AsyncInstanceManager(this);
+		}
+		return async;
 	}
 
 	public void shutdown() {
+		synchronized (this) {
+			if (async != null) {
+				async.shutdown();
+			}
+		}
 		connection.shutdown();
+		if (embedded != null) {
+			embedded.shutdown();
+		}
 	}
 
 }
@@ -0,0 +1,209 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.util;
+
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.stream.Collectors;
+
+import org.HdrHistogram.Histogram;
+
+import com.arangodb.Protocol;
+import com.arangodb.resilience.embedded.SimulatedServer;
+
+/**
+ * Compares the protocols a scenario ran with: requests per second, latency percentiles and bytes on the wire per
+ * request. Every run is appended to {@code protocol-matrix.csv}, and {@link #write()} renders all runs of a test class
+ * side by side in {@code protocol-comparison-<TestClass>.txt}, one row per scenario and topology. Latencies come
+ * from the {@link DriverInstrumentation} of the test class, bytes on the wire from the simulated servers, so they
+ * include VST chunk and HTTP headers and are only known with the embedded instance manager.
+ * <p>
+ * The protocols are configured with {@code -Dresilience.protocols} (comma separated, default
+ * {@code VST,HTTP_JSON,HTTP_VPACK}).
+ */
+public class ProtocolComparison {
+
+	private static final String REPORT = "protocol-matrix.csv";
+
+	private final String name;
+	private final DriverInstrumentation instrumentation;
+	// scenario and topology to the runs per protocol
+	private final Map<String, Map<Protocol, Run>> runs;
+
+	public ProtocolComparison(final String name, final DriverInstrumentation instrumentation) {
+		super();
+		this.name = name;
+		this.instrumentation = instrumentation;
+		runs = new LinkedHashMap<>();
+	}
+
+	/**
+	 * @return the configured protocols
+	 */
+	public static List<Protocol> protocols() {
+		return Arrays.stream(System.getProperty("resilience.protocols", "VST,HTTP_JSON,HTTP_VPACK").split(","))
+				.map(String::trim).map(Protocol::valueOf).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return the configured protocols as parameters of a {@code Parameterized} test
+	 */
+	public static Collection<Object[]> parameters() {
+		return protocols().stream().map(p -> new Object[] { p }).collect(Collectors.toList());
+	}
+
+	/**
+	 * Takes the counters a run is measured against, call it once the scenario's driver is built.
+	 */
+	public Sample start() {
+		return new Sample(instrumentation);
+	}
+
+	/**
+	 * Records the requests since the sample was taken.
+	 *
+	 * @param scenario
+	 *            name of the test method, a parameter suffix like {@code [cluster-1-3-2-VST]} is left out
+	 */
+	public void record(final String scenario, final Topology topology, final Protocol protocol, final Sample since) {
+		if (since == null) {
+			return;
+		}
+		final Sample now = new Sample(instrumentation);
+		final Run run = new Run(now.requests - since.requests, now.errors - since.errors, now.nanos - since.nanos,
+				now.bytesSent - since.bytesSent, now.bytesReceived - since.bytesReceived);
+		run.latency.add(now.latency);
+		run.latency.subtract(since.latency);
+		final String method = scenario.replaceAll("\\[.*\\]$", "");
+		synchronized (runs) {
+			runs.computeIfAbsent(method + " " + topology, k -> new LinkedHashMap<>()).put(protocol, run);
+		}
+		Reports.append(REPORT,
+			"test,scenario,topology,protocol,requests,errors,requestsPerSecond,latencyP50Ms,latencyP99Ms,latencyMaxMs,wireBytesSentPerRequest,wireBytesReceivedPerRequest",
+			String.format("%s,%s,%s,%s,%d,%d,%.1f,%.2f,%.2f,%.2f,%.0f,%.0f", name, method, topology, protocol,
+				run.requests, run.errors, run.throughput(), run.latency.getValueAtPercentile(50) / 1000.0,
+				run.latency.getValueAtPercentile(99) / 1000.0, run.latency.getMaxValue() / 1000.0,
+				run.perRequest(run.bytesSent), run.perRequest(run.bytesReceived)));
+	}
+
+	/**
+	 * Writes the runs side by side to {@code protocol-comparison-<name>.txt}, nothing without runs.
+	 */
+	public Path write() {
+		synchronized (runs) {
+			if (runs.isEmpty()) {
+				return null;
+			}
+			final List<Protocol> protocols = runs.values().stream().flatMap(r -> r.keySet().stream()).distinct()
+					.sorted().collect(Collectors.toList());
+			final StringBuilder report = new StringBuilder(name).append(
+				": requests per second, latency p50/p99 in ms and bytes on the wire (client to server/server to client) per request")
+					.append(System.lineSeparator());
+			report.append(String.format("%-48s", ""));
+			protocols.forEach(p -> report.append(String.format(" | %-37s", p)));
+			report.append(System.lineSeparator()).append(String.format("%-48s", "scenario"));
+			protocols.forEach(p -> report.append(String.format(" | %8s %8s %8s %11s", "req/s", "p50", "p99", "bytes")));
+			report.append(System.lineSeparator());
+			for (final Entry<String, Map<Protocol, Run>> entry : runs.entrySet()) {
+				report.append(String.format("%-48s", entry.getKey()));
+				for (final Protocol protocol : protocols) {
+					final Run run = entry.getValue().get(protocol);
+					if (run == null) {
+						report.append(String.format(" | %37s", "-"));
+					} else {
+						report.append(String.format(" | %8.0f %8.2f %8.2f %11s", run.throughput(),
+							run.latency.getValueAtPercentile(50) / 1000.0,
+							run.latency.getValueAtPercentile(99) / 1000.0, String.format("%.0f/%.0f",
+								run.perRequest(run.bytesSent), run.perRequest(run.bytesReceived))));
+					}
+				}
+				report.append(System.lineSeparator());
+			}
+			return Reports.write("protocol-comparison-" + name + ".txt", report.toString());
+		}
+	}
+
+	/**
+	 * Counters at one point of a run.
+	 */
+	public static class Sample {
+
+		private final long requests;
+		private final long errors;
+		private final long nanos;
+		private final long bytesSent;
+		private final long bytesReceived;
+		private final Histogram latency;
+
+		Sample(final DriverInstrumentation instrumentation) {
+			super();
+			requests = instrumentation.requests();
+			errors = instrumentation.errors();
+			latency = instrumentation.latency();
+			// what the servers received, the client sent
+			bytesSent = SimulatedServer.bytesReceived();
+			bytesReceived = SimulatedServer.bytesSent();
+			nanos = System.nanoTime();
+		}
+
+	}
+
+	private static class Run {
+
+		private final long requests;
+		private final long errors;
+		private final long nanos;
+		private final long bytesSent;
+		private final long bytesReceived;
+		private final Histogram latency = new Histogram(3);
+
+		Run(final long requests, final long errors, final long nanos, final long bytesSent, final long bytesReceived) {
+			super();
+			this.requests = requests;
+			this.errors = errors;
+			this.nanos = nanos;
+			this.bytesSent = bytesSent;
+			this.bytesReceived = bytesReceived;
+		}
+
+		double throughput() {
+			return nanos > 0 ? requests / (nanos / 1e9) : 0.0;
+		}
+
+		/**
+		 * @return bytes per request or {@code -1} without simulated servers
+		 */
+		double perRequest(final long bytes) {
+			if (requests == 0) {
+				return 0.0;
+			}
+			return bytes > 0 ? bytes / (double) requests : -1.0;
+		}
+
+	}
+
+}
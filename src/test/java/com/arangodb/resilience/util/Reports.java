@@ -0,0 +1,87 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.UUID;
+
+/**
+ * Writes scenario reports to {@code target/resilience-reports} (override with {@code -Dresilience.reports}).
+ */
+public abstract class Reports {
+
+	// identifies the build, so test JVMs running in parallel append to the same reports
+	private static final String RUN = System.getProperty("resilience.run", UUID.randomUUID().toString());
+
+	private Reports() {
+		super();
+	}
+
+	public static Path directory() {
+		return Paths.get(System.getProperty("resilience.reports", "target/resilience-reports"));
+	}
+
+	public static Path write(final String name, final String content) {
+		try {
+			final Path file = directory().resolve(name);
+			Files.createDirectories(file.getParent());
+			return Files.write(file, content.getBytes(StandardCharsets.UTF_8));
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+	/**
+	 * Appends a line to a report. The first append of a run ({@code -Dresilience.run}, by default the JVM) replaces a
+	 * report left over from an earlier run and starts it with {@code header}. Safe for several test JVMs appending to
+	 * the same report.
+	 */
+	public static synchronized Path append(final String name, final String header, final String line) {
+		final Path file = directory().resolve(name);
+		try {
+			Files.createDirectories(file.getParent());
+			try (final FileChannel marker = FileChannel.open(file.resolveSibling("." + name + ".run"),
+				StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+				// released when the channel is closed
+				marker.lock();
+				final ByteBuffer run = ByteBuffer.allocate((int) marker.size());
+				marker.read(run, 0);
+				if (!RUN.equals(new String(run.array(), StandardCharsets.UTF_8))) {
+					marker.truncate(0).write(ByteBuffer.wrap(RUN.getBytes(StandardCharsets.UTF_8)), 0);
+					return write(name, header + System.lineSeparator() + line + System.lineSeparator());
+				}
+				return Files.write(file, (line + System.lineSeparator()).getBytes(StandardCharsets.UTF_8),
+					StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+			}
+		} catch (final IOException e) {
+			throw new UncheckedIOException(e);
+		}
+	}
+
+}
@@ -0,0 +1,80 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.util;
+
+/**
+ * When the instances of a batched operation are handled relative to each other.
+ */
+public class Schedule {
+
+	private final long gap;
+	private final boolean rolling;
+
+	private Schedule(final long gap, final boolean rolling) {
+		super();
+		this.gap = gap;
+		this.rolling = rolling;
+	}
+
+	/**
+	 * All instances at the same time.
+	 */
+	public static Schedule allAtOnce() {
+		return new Schedule(0L, false);
+	}
+
+	/**
+	 * One instance every {@code gap} milliseconds, without waiting for the operation on the previous one to finish.
+	 */
+	public static Schedule staggered(final long gap) {
+		return new Schedule(gap, false);
+	}
+
+	/**
+	 * One instance after the other. The next instance is handled once the operation on the previous one finished,
+	 * e.g. a restarted instance is running again.
+	 */
+	public static Schedule rolling() {
+		return rolling(0L);
+	}
+
+	/**
+	 * Like {@link #rolling()} with a pause of {@code gap} milliseconds between two instances.
+	 */
+	public static Schedule rolling(final long gap) {
+		return new Schedule(gap, true);
+	}
+
+	public long getGap() {
+		return gap;
+	}
+
+	public boolean isRolling() {
+		return rolling;
+	}
+
+	@Override
+	public String toString() {
+		return rolling ? "rolling(" + gap + "ms)" : gap > 0 ? "staggered(" + gap + "ms)" : "allAtOnce";
+	}
+
+}
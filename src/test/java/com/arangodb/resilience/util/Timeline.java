@@ -0,0 +1,116 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+
+package com.arangodb.resilience.util;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per-instance events of a batched instance operation, in milliseconds since the operation started.
+ */
+public class Timeline {
+
+	public static final String REQUESTED = "requested";
+	public static final String STOPPED = "stopped";
+	public static final String RESTARTED = "restarted";
+	public static final String RUNNING = "running";
+
+	private final String operation;
+	private final long start;
+	private final List<Event> events;
+
+	public Timeline(final String operation) {
+		super();
+		this.operation = operation;
+		start = System.nanoTime();
+		events = new ArrayList<>();
+	}
+
+	public synchronized void record(final Instance instance, final String event) {
+		events.add(new Event(instance.getName(), event, System.nanoTime() - start));
+	}
+
+	/**
+	 * @return milliseconds since the start of the operation until the first {@code event} of the instance or
+	 *         {@code -1} if it did not happen
+	 */
+	public synchronized long millis(final Instance instance, final String event) {
+		final long at = first(instance.getName(), event);
+		return at >= 0 ? TimeUnit.NANOSECONDS.toMillis(at) : -1L;
+	}
+
+	private long first(final String instance, final String event) {
+		return events.stream().filter(e -> e.instance.equals(instance) && e.event.equals(event)).mapToLong(e -> e.at)
+				.findFirst().orElse(-1L);
+	}
+
+	/**
+	 * @return milliseconds the instance was down, from {@link #STOPPED} until {@link #RUNNING}, or {@code -1}
+	 */
+	public long downtime(final Instance instance) {
+		final long stopped = millis(instance, STOPPED);
+		final long running = millis(instance, RUNNING);
+		return stopped >= 0 && running >= 0 ? running - stopped : -1L;
+	}
+
+	public synchronized String format() {
+		final StringBuilder report = new StringBuilder(operation).append(System.lineSeparator());
+		report.append(String.format("%-16s %-10s %10s%n", "instance", "event", "ms"));
+		events.stream().sorted((a, b) -> Long.compare(a.at, b.at))
+				.forEach(e -> report.append(String.format("%-16s %-10s %10.1f%n", e.instance, e.event, e.at / 1e6)));
+		events.stream().map(e -> e.instance).distinct().forEach(instance -> {
+			final long stopped = first(instance, STOPPED);
+			final long running = first(instance, RUNNING);
+			if (stopped >= 0 && running >= 0) {
+				report.append(String.format("%-16s %-10s %10.1f%n", instance, "downtime", (running - stopped) / 1e6));
+			}
+		});
+		return report.toString();
+	}
+
+	public Path write(final String name) {
+		return Reports.write(name, format());
+	}
+
+	@Override
+	public String toString() {
+		return format();
+	}
+
+	private static class Event {
+
+		private final String instance;
+		private final String event;
+		private final long at;
+
+		Event(final String instance, final String event, final long at) {
+			super();
+			this.instance = instance;
+			this.event = event;
+			this.at = at;
+		}
+
+	}
+
+}
@@ -0,0 +1,141 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.arangodb.Protocol;
+import com.arangodb.internal.net.HostDescription;
+
+/**
+ * One cell of the topology matrix the load balancing and failover scenarios run over: a cluster of agents,
+ * coordinators and DB-Servers or an active failover setup of a leader and followers. The matrix is configured with
+ * {@code -Dresilience.topology.clusters} (comma separated {@code agents:coordinators:dbServers}, default
+ * {@code 1:3:2}) and {@code -Dresilience.topology.followers} (comma separated follower counts, default {@code 1}).
+ */
+public class Topology {
+
+	private final int agents;
+	private final int coordinators;
+	private final int dbServers;
+	private final int followers;
+
+	private Topology(final int agents, final int coordinators, final int dbServers, final int followers) {
+		super();
+		this.agents = agents;
+		this.coordinators = coordinators;
+		this.dbServers = dbServers;
+		this.followers = followers;
+	}
+
+	public static Topology cluster(final int agents, final int coordinators, final int dbServers) {
+		return new Topology(agents, coordinators, dbServers, 0);
+	}
+
+	public static Topology activeFailover(final int followers) {
+		return new Topology(0, 0, 0, followers);
+	}
+
+	/**
+	 * @return the configured cluster cells
+	 */
+	public static List<Topology> clusters() {
+		return Arrays.stream(System.getProperty("resilience.topology.clusters", "1:3:2").split(","))
+				.map(String::trim).map(cell -> {
+					final String[] counts = cell.split(":");
+					if (counts.length != 3) {
+						throw new IllegalArgumentException("expected agents:coordinators:dbServers, got " + cell);
+					}
+					return cluster(Integer.valueOf(counts[0]), Integer.valueOf(counts[1]),
+						Integer.valueOf(counts[2]));
+				}).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return the configured active failover cells
+	 */
+	public static List<Topology> activeFailovers() {
+		return Arrays.stream(System.getProperty("resilience.topology.followers", "1").split(","))
+				.map(String::trim).map(Integer::valueOf).map(Topology::activeFailover).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return the cells as parameters of a {@code Parameterized} test
+	 */
+	public static Collection<Object[]> parameters(final List<Topology> topologies) {
+		return topologies.stream().map(t -> new Object[] { t }).collect(Collectors.toList());
+	}
+
+	/**
+	 * @return every cell combined with every protocol as parameters of a {@code Parameterized} test
+	 */
+	public static Collection<Object[]> parameters(final List<Topology> topologies, final List<Protocol> protocols) {
+		return topologies.stream().flatMap(t -> protocols.stream().map(p -> new Object[] { t, p }))
+				.collect(Collectors.toList());
+	}
+
+	/**
+	 * Leases this topology from the pool.
+	 *
+	 * @return endpoint of the first coordinator or {@code null} for an active failover setup
+	 */
+	public HostDescription lease(final FixturePool fixtures) {
+		if (isCluster()) {
+			return fixtures.leaseCluster(agents, coordinators, dbServers);
+		}
+		fixtures.leaseActiveFailover(followers + 1);
+		return null;
+	}
+
+	public boolean isCluster() {
+		return coordinators > 0;
+	}
+
+	public int getAgents() {
+		return agents;
+	}
+
+	public int getCoordinators() {
+		return coordinators;
+	}
+
+	public int getDbServers() {
+		return dbServers;
+	}
+
+	public int getFollowers() {
+		return followers;
+	}
+
+	/**
+	 * @return a name usable in test names and report file names, e.g. {@code cluster-1-3-2} or
+	 *         {@code activeFailover-1}
+	 */
+	@Override
+	public String toString() {
+		return isCluster() ? "cluster-" + agents + "-" + coordinators + "-" + dbServers
+				: "activeFailover-" + followers;
+	}
+
+}
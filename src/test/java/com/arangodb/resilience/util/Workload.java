@@ -0,0 +1,354 @@
+/*
+ * DISCLAIMER
+ *
+ * Copyright 2018 ArangoDB GmbH, Cologne, Germany
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ *
+ * Copyright holder is ArangoDB GmbH, Cologne, Germany
+ */
+
+package com.arangodb.resilience.util;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.arangodb.ArangoCollection;
+import com.arangodb.ArangoDB;
+import com.arangodb.entity.BaseDocument;
+
+/**
+ * Sustained read/write traffic against one collection. Every operation is counted as success or error in the
+ * {@value #BUCKET_MILLIS} ms bucket it completed in, so the throughput curve around an injected fault can be reported
+ * afterwards. A bucket no operation completed in, e.g. while every request hangs, counts as a bucket without
+ * successes. The latency of successful operations is recorded in microseconds. A worker whose operation failed pauses
+ * before the next one, from {@value #FAILURE_BACKOFF} ms doubling up to {@value #FAILURE_BACKOFF_MAX} ms while the
+ * failures go on, so the errors of an outage count failed operations of the clients rather than how fast a refused
+ * connection fails.
+ */
+public class Workload {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(Workload.class);
+
+	public static final long BUCKET_MILLIS = 100L;
+	private static final int RECENT_KEYS = 1024;
+	private static final double RECOVERED = 0.9;
+	private static final long FAILURE_BACKOFF = 1L;
+	private static final long FAILURE_BACKOFF_MAX = 25L;
+	// the driver has no request timeout by default, a lost request blocks its worker for good
+	private static final long STOP_TIMEOUT = 5000L;
+	// stands in for the buckets no operation completed in
+	private static final Bucket EMPTY = new Bucket();
+
+	private final ArangoCollection collection;
+	private final int threads;
+	private final double readRatio;
+	private final ConcurrentSkipListMap<Long, Bucket> buckets;
+	private final AtomicReferenceArray<String> recentKeys;
+	private final AtomicLong written;
+	private final Histogram latency;
+	private final ConcurrentSkipListMap<Long, String> events;
+	private final List<Thread> workers;
+	private volatile boolean running;
+	private long startedAt;
+	private long stoppedAt;
+	private long markedAt;
+	private String mark;
+	private int stuckWorkers;
+
+	/**
+	 * @param readRatio
+	 *            share of reads between {@code 0.0} (writes only) and {@code 1.0} (reads only)
+	 */
+	public Workload(final ArangoDB arango, final String collection, final int threads, final double readRatio) {
+		super();
+		this.collection = arango.db().collection(collection);
+		this.threads = threads;
+		this.readRatio = readRatio;
+		buckets = new ConcurrentSkipListMap<>();
+		recentKeys = new AtomicReferenceArray<>(RECENT_KEYS);
+		written = new AtomicLong();
+		latency = new ConcurrentHistogram(3);
+		events = new ConcurrentSkipListMap<>();
+		workers = new ArrayList<>();
+	}
+
+	/**
+	 * Creates the collection if necessary and starts the worker threads.
+	 */
+	public synchronized Workload start() {
+		if (!collection.exists()) {
+			collection.create();
+		}
+		running = true;
+		startedAt = System.nanoTime();
+		for (int i = 0; i < threads; i++) {
+			final Thread worker = new Thread(this::work, "workload-" + i);
+			worker.setDaemon(true);
+			workers.add(worker);
+			worker.start();
+		}
+		return this;
+	}
+
+	/**
+	 * Marks the moment a fault is injected. Throughput before the mark is the baseline the dip is measured against.
+	 */
+	public synchronized void mark(final String event) {
+		markedAt = System.nanoTime();
+		mark = event;
+		FlightRecording.fault(event);
+	}
+
+	/**
+	 * Records an event in the timeline without moving the mark, e.g. one of many injected faults.
+	 */
+	public void event(final String event) {
+		events.merge(bucket(System.nanoTime()), event, (a, b) -> a + ";" + b);
+	}
+
+	/**
+	 * Stops the workers, giving up after {@value #STOP_TIMEOUT} ms on those still waiting for a response.
+	 */
+	public synchronized void stop() throws InterruptedException {
+		running = false;
+		stoppedAt = System.nanoTime();
+		final long deadline = stoppedAt + TimeUnit.MILLISECONDS.toNanos(STOP_TIMEOUT);
+		for (final Thread worker : workers) {
+			worker.join(Math.max(1, TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime())));
+			if (worker.isAlive()) {
+				stuckWorkers++;
+			}
+		}
+		workers.clear();
+	}
+
+	/**
+	 * @return workers {@link #stop()} gave up on, each one blocked in a request the driver never answered
+	 */
+	public synchronized int stuckWorkers() {
+		return stuckWorkers;
+	}
+
+	private void work() {
+		final ThreadLocalRandom random = ThreadLocalRandom.current();
+		long backoff = 0;
+		while (running) {
+			final long available = Math.min(written.get(), RECENT_KEYS);
+			final String key = available > 0 ? recentKeys.get(random.nextInt((int) available)) : null;
+			final boolean read = key != null && random.nextDouble() < readRatio;
+			boolean success;
+			final long begin = System.nanoTime();
+			try {
+				if (read) {
+					success = collection.getDocument(key, BaseDocument.class) != null;
+				} else {
+					final BaseDocument document = new BaseDocument();
+					document.addAttribute("value", random.nextLong());
+					final String created = collection.insertDocument(document).getKey();
+					recentKeys.set((int) (written.getAndIncrement() % RECENT_KEYS), created);
+					success = true;
+				}
+			} catch (final RuntimeException e) {
+				LOGGER.debug("{} failed: {}", read ? "read" : "write", e.getMessage());
+				success = false;
+			}
+			final long end = System.nanoTime();
+			if (success) {
+				latency.recordValue(TimeUnit.NANOSECONDS.toMicros(end - begin));
+			}
+			buckets.computeIfAbsent(bucket(end), b -> new Bucket()).count(read, success);
+			backoff = success ? 0 : Math.min(FAILURE_BACKOFF_MAX, Math.max(FAILURE_BACKOFF, backoff * 2));
+			if (backoff > 0) {
+				try {
+					Thread.sleep(backoff);
+				} catch (final InterruptedException e) {
+					Thread.currentThread().interrupt();
+					return;
+				}
+			}
+		}
+	}
+
+	private long bucket(final long nanoTime) {
+		return TimeUnit.NANOSECONDS.toMillis(nanoTime - startedAt) / BUCKET_MILLIS;
+	}
+
+	/**
+	 * @return the first bucket which is not complete yet, the current one or the one the workload was stopped in
+	 */
+	private long end() {
+		return bucket(stoppedAt > 0 ? stoppedAt : System.nanoTime());
+	}
+
+	/**
+	 * @return successful operations completed in the bucket, {@code 0} if none completed at all
+	 */
+	private long successes(final long bucket) {
+		final Bucket b = buckets.get(bucket);
+		return b != null ? b.successes() : 0;
+	}
+
+	/**
+	 * @return mean successful operations per bucket before the mark, leaving out the first bucket as warmup
+	 */
+	public synchronized double baseline() {
+		final long markBucket = bucket(markedAt);
+		return markBucket > 1 ? LongStream.range(1, markBucket).map(this::successes).average().orElse(0) : 0;
+	}
+
+	/**
+	 * @return {@code true} once a bucket after the mark reached {@value #RECOVERED} of the baseline throughput again
+	 *         after the throughput fell below it
+	 */
+	public synchronized boolean isRecovered() {
+		return recoveredBucket() >= 0;
+	}
+
+	private long recoveredBucket() {
+		final double threshold = baseline() * RECOVERED;
+		final long end = end();
+		boolean dipped = false;
+		for (long bucket = bucket(markedAt); bucket < end; bucket++) {
+			if (successes(bucket) < threshold) {
+				dipped = true;
+			} else if (dipped) {
+				return bucket;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * @return the fewest successful operations in a complete bucket since the mark, {@code 0} for a full stall
+	 */
+	public synchronized long minimumAfterMark() {
+		return LongStream.range(bucket(markedAt), end()).map(this::successes).min().orElse(0);
+	}
+
+	/**
+	 * @return milliseconds from the mark until the throughput recovered, {@code -1} if it did not
+	 */
+	public synchronized long dipMillis() {
+		final long recovered = recoveredBucket();
+		return recovered >= 0 ? (recovered - bucket(markedAt)) * BUCKET_MILLIS : -1;
+	}
+
+	/**
+	 * @return latencies of the successful operations so far, in microseconds
+	 */
+	public Histogram latency() {
+		return latency.copy();
+	}
+
+	/**
+	 * @return the longest stretch in milliseconds without a single successful operation, counted in whole buckets
+	 */
+	public synchronized long longestStall() {
+		long longest = 0;
+		long current = 0;
+		final long end = end();
+		for (long bucket = 0; bucket < end; bucket++) {
+			current = successes(bucket) == 0 ? current + 1 : 0;
+			longest = Math.max(longest, current);
+		}
+		return longest * BUCKET_MILLIS;
+	}
+
+	public long errors() {
+		return buckets.values().stream().mapToLong(Bucket::errors).sum();
+	}
+
+	/**
+	 * @return successful operations since the mark
+	 */
+	public synchronized long successesAfterMark() {
+		return buckets.tailMap(bucket(markedAt)).values().stream().mapToLong(Bucket::successes).sum();
+	}
+
+	/**
+	 * Writes the timeline as {@code <name>.csv}, one line per bucket including the ones no operation completed in,
+	 * and appends baseline, dip depth and dip duration to {@code workload-dips.csv}.
+	 */
+	public synchronized Path write(final String name) {
+		final long markBucket = bucket(markedAt);
+		final StringBuilder timeline = new StringBuilder("bucketMillis,reads,writes,readErrors,writeErrors,event")
+				.append(System.lineSeparator());
+		final long last = Math.max(end() - 1, buckets.isEmpty() ? -1 : buckets.lastKey());
+		for (long bucket = 0; bucket <= last; bucket++) {
+			final Bucket b = buckets.getOrDefault(bucket, EMPTY);
+			timeline.append(bucket * BUCKET_MILLIS).append(',').append(b.reads.sum()).append(',')
+					.append(b.writes.sum()).append(',').append(b.readErrors.sum()).append(',')
+					.append(b.writeErrors.sum()).append(',').append(event(bucket, markBucket))
+					.append(System.lineSeparator());
+		}
+		final double baseline = baseline();
+		final long minimum = minimumAfterMark();
+		final long dip = dipMillis();
+		final long errorsAfterMark = buckets.tailMap(markBucket).values().stream().mapToLong(Bucket::errors).sum();
+		LOGGER.info("{}: baseline {} ops/{}ms, minimum {}, dip {} ms, {} errors", name, String.format("%.1f", baseline),
+			BUCKET_MILLIS, minimum, dip >= 0 ? dip : "n/a", errorsAfterMark);
+		Reports.append("workload-dips.csv",
+			"scenario,threads,baselineOpsPerBucket,minimumOpsPerBucket,dipDepthPercent,dipMillis,errors",
+			String.format("%s,%d,%.1f,%d,%.1f,%d,%d", name, threads, baseline, minimum,
+				baseline > 0 ? 100.0 * (1.0 - minimum / baseline) : 0.0, dip, errorsAfterMark));
+		return Reports.write(name + ".csv", timeline.toString());
+	}
+
+	private String event(final long bucket, final long markBucket) {
+		final String event = events.get(bucket);
+		if (bucket == markBucket && mark != null) {
+			return event != null ? mark + ";" + event : mark;
+		}
+		return event != null ? event : "";
+	}
+
+	private static class Bucket {
+
+		private final LongAdder reads = new LongAdder();
+		private final LongAdder writes = new LongAdder();
+		private final LongAdder readErrors = new LongAdder();
+		private final LongAdder writeErrors = new LongAdder();
+
+		void count(final boolean read, final boolean success) {
+			if (read) {
+				(success ? reads : readErrors).increment();
+			} else {
+				(success ? writes : writeErrors).increment();
+			}
+		}
+
+		long successes() {
+			return reads.sum() + writes.sum();
+		}
+
+		long errors() {
+			return readErrors.sum() + writeErrors.sum();
+		}
+
+	}
+
+}